@@ -0,0 +1,64 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 固定工作线程数下同步、异步查询店铺的吞吐量（请求/秒），对应 /shop/{id} 和 /shop/async/{id}
+ * 64个客户端线程并发请求，workers个线程相当于Tomcat的工作线程，Redis每条命令的往返时间为SlowRedis.delayMicros：
+ * blocking在工作线程中同步读取缓存，整个往返都占用线程；async在工作线程中发出Lettuce异步命令后立即释放线程
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class AsyncQueryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Workers {
+        @Param({"8"})
+        int workers;
+        ExecutorService executor;
+
+        @Setup
+        public void setup() {
+            executor = Executors.newFixedThreadPool(workers);
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public Shop blocking(SlowRedis redis, Workers workers) throws Exception {
+        return workers.executor.submit(redis::queryShop).get();
+    }
+
+    @Benchmark
+    public Shop async(SlowRedis redis, Workers workers) throws Exception {
+        return CompletableFuture.supplyAsync(redis::queryShopAsync, workers.executor)
+                .thenCompose(future -> future)
+                .get();
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * CacheClient命中缓存时的开销：读取字符串 + JSON反序列化 + 指标记录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheClientBenchmark {
+
+    private static final long SHOP_ID = 1L;
+    private static final String LOGICAL_PREFIX = "cache:shop:logical:";
+
+    // 命中路径不应该查询数据库
+    private static final Function<Long, Shop> DB_FALLBACK = id -> {
+        throw new IllegalStateException("cache miss: " + id);
+    };
+
+    private CacheClient cacheClient;
+
+    @Setup
+    public void setup() {
+        cacheClient = Fixtures.cacheClient(new InMemoryRedisTemplate());
+        Shop shop = Fixtures.shop(SHOP_ID);
+        cacheClient.set(RedisConstants.CACHE_SHOP_KEY + SHOP_ID, shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpire(LOGICAL_PREFIX + SHOP_ID, shop, 1L, TimeUnit.DAYS);
+    }
+
+    @Benchmark
+    public Shop passThroughHit() {
+        return cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, SHOP_ID, Shop.class,
+                DB_FALLBACK, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpireHit() {
+        return cacheClient.querywithLogicalExpire(LOGICAL_PREFIX, SHOP_ID, Shop.class,
+                DB_FALLBACK, 1L, TimeUnit.DAYS);
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存对象的编解码开销：项目中使用的hutool JSONUtil，对比Jackson和JDK序列化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"shop", "blog"})
+    public String entity;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private Object value;
+    private Class<?> type;
+    private String hutoolJson;
+    private byte[] jacksonJson;
+    private byte[] jdkBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        value = "shop".equals(entity) ? Fixtures.shop(1L) : Fixtures.blog(1L);
+        type = value.getClass();
+        hutoolJson = JSONUtil.toJsonStr(value);
+        jacksonJson = MAPPER.writeValueAsBytes(value);
+        jdkBytes = jdkEncode();
+    }
+
+    @Benchmark
+    public String hutoolEncode() {
+        return JSONUtil.toJsonStr(value);
+    }
+
+    @Benchmark
+    public Object hutoolDecode() {
+        return JSONUtil.toBean(hutoolJson, type);
+    }
+
+    @Benchmark
+    public byte[] jacksonEncode() throws IOException {
+        return MAPPER.writeValueAsBytes(value);
+    }
+
+    @Benchmark
+    public Object jacksonDecode() throws IOException {
+        return MAPPER.readValue(jacksonJson, type);
+    }
+
+    @Benchmark
+    public byte[] jdkEncode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(value);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Object jdkDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(jdkBytes))) {
+            return ois.readObject();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.CacheClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基准测试共用的测试数据和对象组装
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * CacheClient使用@Resource字段注入，这里不启动Spring容器，直接反射设置
+     */
+    static CacheClient cacheClient(StringRedisTemplate stringRedisTemplate) {
+        return inject(new CacheClient(), "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    /**
+     * 反射设置@Resource字段
+     */
+    static <T> T inject(T target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return target;
+    }
+
+    /**
+     * 模拟的ShopMapper，第一次selectList返回全部店铺，之后返回空列表，用于各个本地索引按id分批全量构建
+     */
+    static ShopMapper shopMapper(List<Shop> shops) {
+        AtomicBoolean loaded = new AtomicBoolean();
+        return (ShopMapper) Proxy.newProxyInstance(ShopMapper.class.getClassLoader(), new Class<?>[]{ShopMapper.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(shops, args);
+                    }
+                    if (!"selectList".equals(method.getName())) {
+                        throw new UnsupportedOperationException("ShopMapper." + method.getName());
+                    }
+                    return loaded.compareAndSet(false, true) ? new ArrayList<>(shops) : Collections.emptyList();
+                });
+    }
+
+    static Shop shop(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    static Blog blog(long id) {
+        Blog blog = new Blog();
+        blog.setId(id);
+        blog.setShopId(4L);
+        blog.setUserId(2L);
+        blog.setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩");
+        blog.setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg");
+        blog.setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>"
+                + "无法重来的一生·尽量快乐.<br/><br/>🏰「小筑里·神秘浪漫花园餐厅」🏰<br/><br/>💯这是一家最最最美花园的西餐厅·到处都是花餐桌上是花前台是花");
+        blog.setLiked(26);
+        blog.setComments(104);
+        blog.setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1));
+        blog.setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+        return blog;
+    }
+}
@@ -0,0 +1,172 @@
+package com.hmdp.benchmark;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.HyperLogLogOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于ConcurrentHashMap的StringRedisTemplate，基准测试离线运行，不依赖Redis服务
+ * 只实现被测代码用到的命令，过期时间被忽略；测出的是客户端代码本身的开销，不含网络往返
+ */
+public class InMemoryRedisTemplate extends StringRedisTemplate {
+
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, Map<Object, Object>> hashes = new ConcurrentHashMap<>();
+    private final Map<String, RedisHyperLogLog> hyperLogLogs = new ConcurrentHashMap<>();
+
+    private final ValueOperations<String, String> valueOps = proxy(ValueOperations.class, (method, args) -> {
+        String key = (String) args[0];
+        switch (method) {
+            case "get":
+                AtomicLong counter = counters.get(key);
+                return counter != null ? String.valueOf(counter.get()) : strings.get(key);
+            case "set":
+                strings.put(key, (String) args[1]);
+                return null;
+            case "setIfAbsent":
+                return strings.putIfAbsent(key, (String) args[1]) == null;
+            case "increment":
+                long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1L;
+                return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+            default:
+                throw new UnsupportedOperationException("ValueOperations." + method);
+        }
+    });
+
+    private final HashOperations<String, Object, Object> hashOps = proxy(HashOperations.class, (method, args) -> {
+        String key = (String) args[0];
+        switch (method) {
+            case "entries":
+                return hashes.getOrDefault(key, Collections.emptyMap());
+            case "putAll":
+                @SuppressWarnings("unchecked")
+                Map<Object, Object> values = (Map<Object, Object>) args[1];
+                hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).putAll(values);
+                return null;
+            default:
+                throw new UnsupportedOperationException("HashOperations." + method);
+        }
+    });
+
+    private final ZSetOperations<String, String> zSetOps = proxy(ZSetOperations.class, (method, args) -> {
+        if ("add".equals(method)) {
+            return Boolean.TRUE;
+        }
+        throw new UnsupportedOperationException("ZSetOperations." + method);
+    });
+
+    private final HyperLogLogOperations<String, String> hyperLogLogOps = proxy(HyperLogLogOperations.class, (method, args) -> {
+        switch (method) {
+            case "add":
+                return pfAdd((String) args[0], (String[]) args[1]);
+            case "size":
+                String[] keys = (String[]) args[0];
+                RedisHyperLogLog[] hlls = new RedisHyperLogLog[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    hlls[i] = hyperLogLogs.getOrDefault(keys[i], new RedisHyperLogLog());
+                }
+                return RedisHyperLogLog.count(hlls);
+            default:
+                throw new UnsupportedOperationException("HyperLogLogOperations." + method);
+        }
+    });
+
+    /**
+     * pipeline中的命令直接执行，只支持pfAdd和expire
+     */
+    private final StringRedisConnection pipelineConnection = proxy(StringRedisConnection.class, (method, args) -> {
+        switch (method) {
+            case "pfAdd":
+                return pfAdd((String) args[0], (String[]) args[1]);
+            case "expire":
+                return Boolean.TRUE;
+            default:
+                throw new UnsupportedOperationException("StringRedisConnection." + method);
+        }
+    });
+
+    @Override
+    public ValueOperations<String, String> opsForValue() {
+        return valueOps;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <HK, HV> HashOperations<String, HK, HV> opsForHash() {
+        return (HashOperations<String, HK, HV>) (HashOperations<String, ?, ?>) hashOps;
+    }
+
+    @Override
+    public ZSetOperations<String, String> opsForZSet() {
+        return zSetOps;
+    }
+
+    @Override
+    public HyperLogLogOperations<String, String> opsForHyperLogLog() {
+        return hyperLogLogOps;
+    }
+
+    @Override
+    public List<Object> executePipelined(RedisCallback<?> action) {
+        action.doInRedis(pipelineConnection);
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Boolean expire(String key, long timeout, TimeUnit unit) {
+        return strings.containsKey(key) || hashes.containsKey(key);
+    }
+
+    @Override
+    public Boolean delete(String key) {
+        boolean removed = strings.remove(key) != null;
+        removed |= counters.remove(key) != null;
+        removed |= hashes.remove(key) != null;
+        return removed;
+    }
+
+    /**
+     * 只模拟unlock.lua：KEYS[1]的值与ARGV[1]一致时删除
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        boolean removed = strings.remove(keys.get(0), args[0]);
+        return (T) Long.valueOf(removed ? 1L : 0L);
+    }
+
+    private long pfAdd(String key, String[] values) {
+        RedisHyperLogLog hll = hyperLogLogs.computeIfAbsent(key, k -> new RedisHyperLogLog());
+        boolean changed = false;
+        for (String value : values) {
+            changed |= hll.add(value);
+        }
+        return changed ? 1L : 0L;
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (p, method, args) -> method.getDeclaringClass() == Object.class
+                        ? method.invoke(handler, args)
+                        : handler.handle(method.getName(), args));
+    }
+}
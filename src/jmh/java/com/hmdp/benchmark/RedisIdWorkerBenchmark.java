@@ -0,0 +1,50 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker生成id的开销：时间戳、日期格式化、拼接key和自增
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    private RedisIdWorker redisIdWorker;
+
+    @Setup
+    public void setup() {
+        // 同步的nextId不使用AsyncRedis
+        redisIdWorker = new RedisIdWorker(new InMemoryRedisTemplate(), null);
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("order");
+    }
+
+    /**
+     * 多线程同时生成id，序列号争用同一个计数器
+     */
+    @Benchmark
+    @Threads(4)
+    public long nextIdContended() {
+        return redisIdWorker.nextId("order");
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求都会经过的RefreshTokenInterceptor.preHandle：读取token对应的用户Hash、填充UserDTO、刷新有效期
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshTokenInterceptorBenchmark {
+
+    private static final String TOKEN = "0d1f4ad3c1b54bf0b6b7c2d1a3e5f789";
+
+    private RefreshTokenInterceptor interceptor;
+    private MockHttpServletRequest loginRequest;
+    private MockHttpServletRequest anonymousRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        InMemoryRedisTemplate stringRedisTemplate = new InMemoryRedisTemplate();
+        // 与登录时写入的格式一致：字段值都是字符串
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_8xvw6fmy2p");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + TOKEN, userMap);
+        interceptor = new RefreshTokenInterceptor(stringRedisTemplate);
+
+        loginRequest = new MockHttpServletRequest("GET", "/blog/hot");
+        loginRequest.addHeader(SystemConstants.TOKEN_HEADER, TOKEN);
+        anonymousRequest = new MockHttpServletRequest("GET", "/blog/hot");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public boolean preHandleLoggedIn() throws Exception {
+        try {
+            return interceptor.preHandle(loginRequest, response, null);
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    @Benchmark
+    public boolean preHandleAnonymous() throws Exception {
+        return interceptor.preHandle(anonymousRequest, response, null);
+    }
+}
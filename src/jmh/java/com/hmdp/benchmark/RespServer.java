@@ -0,0 +1,172 @@
+package com.hmdp.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的Redis协议（RESP2）服务端，让Lettuce的同步、异步客户端都走真实的TCP连接
+ * 每个回复延迟delayMicros后按请求顺序发送，模拟网络往返和Redis变慢；只支持GET、SET、DEL和连接握手，过期时间被忽略
+ */
+final class RespServer implements Closeable {
+
+    private static final ThreadFactory DAEMON = runnable -> {
+        Thread thread = new Thread(runnable, "resp-server");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final ServerSocket serverSocket;
+    private final long delayMicros;
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+    private final ExecutorService connections = Executors.newCachedThreadPool(DAEMON);
+    private volatile boolean closed;
+
+    RespServer(long delayMicros) throws IOException {
+        this.delayMicros = delayMicros;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        connections.execute(this::accept);
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个连接一个读线程，回复交给单线程的定时器延迟发送，延迟相同所以顺序和请求一致
+     */
+    private void serve(Socket socket) {
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(DAEMON);
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = s.getOutputStream()) {
+            List<String> command;
+            while ((command = readCommand(in)) != null) {
+                byte[] reply = execute(command).getBytes(StandardCharsets.UTF_8);
+                writer.schedule(() -> {
+                    try {
+                        out.write(reply);
+                        out.flush();
+                    } catch (IOException ignored) {
+                        // 客户端已断开
+                    }
+                }, delayMicros, TimeUnit.MICROSECONDS);
+            }
+        } catch (IOException ignored) {
+            // 客户端已断开
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private String execute(List<String> command) {
+        switch (command.get(0).toUpperCase(Locale.ROOT)) {
+            case "PING":
+                return "+PONG\r\n";
+            case "AUTH":
+            case "SELECT":
+            case "CLIENT":
+                return "+OK\r\n";
+            case "GET":
+                return bulk(data.get(command.get(1)));
+            case "SET":
+                boolean nx = command.stream().skip(3).anyMatch("NX"::equalsIgnoreCase);
+                if (nx) {
+                    return data.putIfAbsent(command.get(1), command.get(2)) == null ? "+OK\r\n" : "$-1\r\n";
+                }
+                data.put(command.get(1), command.get(2));
+                return "+OK\r\n";
+            case "DEL":
+                long removed = command.stream().skip(1).filter(key -> data.remove(key) != null).count();
+                return ":" + removed + "\r\n";
+            default:
+                // 包括HELLO，Lettuce收到错误后使用RESP2
+                return "-ERR unknown command '" + command.get(0) + "'\r\n";
+        }
+    }
+
+    private static String bulk(String value) {
+        if (value == null) {
+            return "$-1\r\n";
+        }
+        return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+    }
+
+    /**
+     * 读取一条命令：*参数个数 后接若干 $长度 参数
+     * @return 连接关闭时返回null
+     */
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0) {
+                    return null;
+                }
+                read += n;
+            }
+            readLine(in);
+            args.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.SystemConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 按名称搜索店铺：倒排索引 vs LIKE '%name%'
+ * 离线没有MySQL，like在进程内模拟 queryShopByName 的数据库分页查询：LIKE前后都有通配符，name上的索引用不上，
+ * 分页的COUNT和查询第一页都要逐行比较全部店铺名称；只包含数据库的比较，不含网络往返和磁盘IO。
+ * Setup中校验索引命中的店铺和逐行比较的结果完全一致，即索引没有漏掉 LIKE 能查到的店铺
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShopSearchIndexBenchmark {
+
+    private static final String[] PREFIXES = {"老", "小", "新", "金", "福", "大", "川", "湘", "粤", "杭"};
+    private static final String[] CORES = {"茶餐厅", "火锅", "烤肉", "面馆", "咖啡", "甜品", "小吃", "酒吧", "KTV", "Coffee"};
+    private static final String[] SUFFIXES = {"", "(西湖店)", "(滨江店)", "(萧山店)", "·旗舰店", " 2号店"};
+
+    // 店铺总数
+    @Param({"10000", "100000"})
+    int shops;
+
+    // 命中约10%店铺的中文两字词、英文单词，命中约0.1%店铺的名称片段
+    @Param({"火锅", "coffee", "福42"})
+    String keyword;
+
+    private ShopSearchIndex searchIndex;
+    private String[] names;
+    private long[] ids;
+
+    @Setup
+    public void setup() {
+        // 1.由前缀、品类、分店名组合出的店铺名称
+        Random random = new Random(42);
+        List<Shop> list = new ArrayList<>(shops);
+        names = new String[shops];
+        ids = new long[shops];
+        for (int i = 0; i < shops; i++) {
+            String name = PREFIXES[random.nextInt(PREFIXES.length)] + random.nextInt(1000)
+                    + CORES[random.nextInt(CORES.length)] + SUFFIXES[random.nextInt(SUFFIXES.length)];
+            ids[i] = i + 1;
+            names[i] = name.toLowerCase();
+            list.add(new Shop().setId(ids[i]).setName(name).setTypeId((long) (i % 10 + 1)).setArea("西湖")
+                    .setSold(random.nextInt(10000)).setComments(random.nextInt(1000)));
+        }
+        // 2.本地索引，从模拟的ShopMapper全量构建
+        searchIndex = Fixtures.inject(new ShopSearchIndex(), "shopMapper", Fixtures.shopMapper(list));
+        searchIndex.rebuild();
+        // 3.校验召回：索引的全部结果和逐行比较的结果一致
+        Set<Long> expected = new TreeSet<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].contains(keyword)) {
+                expected.add(ids[i]);
+            }
+        }
+        Set<Long> actual = searchIndex.search(keyword, null, null, null, Integer.MAX_VALUE).stream()
+                .map(ScrollCursor::getLastId).collect(Collectors.toCollection(TreeSet::new));
+        if (expected.isEmpty() || !expected.equals(actual)) {
+            throw new IllegalStateException("查询结果不一致：" + expected.size() + " / " + actual.size());
+        }
+    }
+
+    @Benchmark
+    public List<ScrollCursor> index() {
+        return searchIndex.search(keyword, null, null, null, SystemConstants.MAX_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Long> like() {
+        // 1.SELECT COUNT(*) ... WHERE name LIKE '%keyword%'
+        int total = 0;
+        for (String name : names) {
+            if (name.contains(keyword)) {
+                total++;
+            }
+        }
+        // 2.按主键顺序扫描到第一页填满为止
+        List<Long> page = new ArrayList<>(SystemConstants.MAX_PAGE_SIZE);
+        for (int i = 0; i < names.length && total > 0 && page.size() < SystemConstants.MAX_PAGE_SIZE; i++) {
+            if (names[i].contains(keyword)) {
+                page.add(ids[i]);
+            }
+        }
+        return page;
+    }
+}
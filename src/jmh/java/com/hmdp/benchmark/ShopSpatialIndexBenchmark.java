@@ -0,0 +1,220 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopSpatialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 附近店铺查询：本地空间索引 vs Redis GEO
+ * 离线没有Redis，geoSearch在进程内按Redis GEOSEARCH BYRADIUS ASC COUNT的算法模拟：52位geohash有序数组，
+ * 按半径估算精度后扫描中心及周围8个geohash格子的分数区间，计算距离、排序；只包含Redis服务端的计算，不含网络往返和序列化，
+ * 线上每次查询还要再加一次Redis往返。linearScan为遍历同类型全部店铺的基准，Setup中用它校验两种方式的结果完全一致
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShopSpatialIndexBenchmark {
+
+    private static final int TYPES = 10;
+    private static final long TYPE_ID = 1L;
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+    // 店铺分布范围（度），约100km
+    private static final double SPREAD = 1.0;
+    private static final double RADIUS = 5000;
+    private static final int LIMIT = 10;
+
+    // 店铺总数，平均分到TYPES个类型
+    @Param({"10000", "100000"})
+    int shops;
+
+    private ShopSpatialIndex spatialIndex;
+    private long[] typeIds;
+    private double[] typeXs;
+    private double[] typeYs;
+    private GeoSet geoSet;
+
+    @Setup
+    public void setup() {
+        // 1.以杭州市区为中心随机分布的店铺
+        Random random = new Random(42);
+        List<Shop> list = new ArrayList<>(shops);
+        for (long id = 1; id <= shops; id++) {
+            list.add(new Shop().setId(id).setTypeId(id % TYPES + 1)
+                    .setX(CENTER_X + (random.nextDouble() - 0.5) * SPREAD)
+                    .setY(CENTER_Y + (random.nextDouble() - 0.5) * SPREAD));
+        }
+        List<Shop> sameType = list.stream().filter(shop -> shop.getTypeId() == TYPE_ID).collect(Collectors.toList());
+        typeIds = sameType.stream().mapToLong(Shop::getId).toArray();
+        typeXs = sameType.stream().mapToDouble(Shop::getX).toArray();
+        typeYs = sameType.stream().mapToDouble(Shop::getY).toArray();
+        // 2.本地索引，从模拟的ShopMapper全量构建
+        spatialIndex = Fixtures.inject(new ShopSpatialIndex(), "shopMapper", Fixtures.shopMapper(list));
+        Fixtures.inject(spatialIndex, "enabled", true);
+        spatialIndex.rebuild();
+        // 3.模拟Redis中 shop:geo:typeId 的有序集合
+        geoSet = new GeoSet(typeIds, typeXs, typeYs);
+        // 4.校验结果一致
+        List<Long> expected = linearScan();
+        if (!expected.equals(localIndex()) || !expected.equals(geoSearch())) {
+            throw new IllegalStateException("查询结果不一致：" + expected + " / " + localIndex() + " / " + geoSearch());
+        }
+    }
+
+    @Benchmark
+    public List<Long> localIndex() {
+        return spatialIndex.search(TYPE_ID, CENTER_X, CENTER_Y, RADIUS, LIMIT);
+    }
+
+    @Benchmark
+    public List<Long> geoSearch() {
+        return geoSet.search(CENTER_X, CENTER_Y, RADIUS, LIMIT);
+    }
+
+    @Benchmark
+    public List<Long> linearScan() {
+        List<long[]> hits = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        for (int i = 0; i < typeIds.length; i++) {
+            double distance = ShopSpatialIndex.distance(CENTER_X, CENTER_Y, typeXs[i], typeYs[i]);
+            if (distance <= RADIUS) {
+                hits.add(new long[]{typeIds[i], distances.size()});
+                distances.add(distance);
+            }
+        }
+        hits.sort(Comparator.comparingDouble(hit -> distances.get((int) hit[1])));
+        return hits.stream().limit(LIMIT).map(hit -> hit[0]).collect(Collectors.toList());
+    }
+
+    /**
+     * 按Redis geohash.c / geohash_helper.c实现的GEO有序集合，分数为52位geohash
+     */
+    static class GeoSet {
+        private static final double LAT_MIN = -85.05112878;
+        private static final double LAT_MAX = 85.05112878;
+        private static final double MERCATOR_MAX = 20037726.37;
+        private static final int STEP_MAX = 26;
+
+        private final long[] scores;
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        GeoSet(long[] ids, double[] xs, double[] ys) {
+            Integer[] order = new Integer[ids.length];
+            long[] hashes = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                order[i] = i;
+                hashes[i] = encode(xs[i], ys[i], STEP_MAX);
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+            this.scores = new long[ids.length];
+            this.ids = new long[ids.length];
+            this.xs = new double[ids.length];
+            this.ys = new double[ids.length];
+            for (int i = 0; i < order.length; i++) {
+                scores[i] = hashes[order[i]];
+                this.ids[i] = ids[order[i]];
+                this.xs[i] = xs[order[i]];
+                this.ys[i] = ys[order[i]];
+            }
+        }
+
+        List<Long> search(double x, double y, double radius, int limit) {
+            // 1.按半径估算geohash精度，取中心格子及周围8个格子
+            int step = estimateSteps(radius, y);
+            long cellX = cellIndex(x, -180, 180, step);
+            long cellY = cellIndex(y, LAT_MIN, LAT_MAX, step);
+            int shift = (STEP_MAX - step) * 2;
+            List<long[]> hits = new ArrayList<>();
+            List<Double> distances = new ArrayList<>();
+            for (long dx = -1; dx <= 1; dx++) {
+                for (long dy = -1; dy <= 1; dy++) {
+                    long min = interleave(cellY + dy, cellX + dx) << shift;
+                    long max = (interleave(cellY + dy, cellX + dx) + 1) << shift;
+                    // 2.ZRANGEBYSCORE [min, max)，计算距离
+                    int from = lowerBound(min);
+                    for (int i = from; i < scores.length && scores[i] < max; i++) {
+                        double distance = ShopSpatialIndex.distance(x, y, xs[i], ys[i]);
+                        if (distance <= radius) {
+                            hits.add(new long[]{ids[i], distances.size()});
+                            distances.add(distance);
+                        }
+                    }
+                }
+            }
+            // 3.ASC COUNT：全部按距离排序后取前limit个
+            hits.sort(Comparator.comparingDouble(hit -> distances.get((int) hit[1])));
+            return hits.stream().limit(limit).map(hit -> hit[0]).collect(Collectors.toList());
+        }
+
+        private int lowerBound(long score) {
+            int index = Arrays.binarySearch(scores, score);
+            if (index < 0) {
+                return -index - 1;
+            }
+            while (index > 0 && scores[index - 1] == score) {
+                index--;
+            }
+            return index;
+        }
+
+        private static int estimateSteps(double radius, double lat) {
+            int step = 1;
+            while (radius < MERCATOR_MAX) {
+                radius *= 2;
+                step++;
+            }
+            step -= 2;
+            if (lat > 66 || lat < -66) {
+                step--;
+                if (lat > 80 || lat < -80) {
+                    step--;
+                }
+            }
+            return Math.max(1, Math.min(STEP_MAX, step));
+        }
+
+        private static long encode(double x, double y, int step) {
+            return interleave(cellIndex(y, LAT_MIN, LAT_MAX, step), cellIndex(x, -180, 180, step));
+        }
+
+        private static long cellIndex(double value, double min, double max, int step) {
+            return (long) ((value - min) / (max - min) * (1L << step));
+        }
+
+        /**
+         * 纬度占偶数位，经度占奇数位
+         */
+        private static long interleave(long lat, long lon) {
+            long hash = 0;
+            for (int i = 0; i < 32; i++) {
+                hash |= (lat >>> i & 1L) << (2 * i);
+                hash |= (lon >>> i & 1L) << (2 * i + 1);
+            }
+            return hash;
+        }
+    }
+}
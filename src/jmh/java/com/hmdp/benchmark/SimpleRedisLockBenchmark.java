@@ -0,0 +1,66 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SimpleRedisLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimpleRedisLock一次加锁+释放锁的开销，和下单时的用法一样每次创建新的锁对象
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRedisLockBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Redis {
+        InMemoryRedisTemplate stringRedisTemplate;
+
+        @Setup
+        public void setup() {
+            stringRedisTemplate = new InMemoryRedisTemplate();
+        }
+    }
+
+    /**
+     * 每个线程使用不同的锁名，相当于不同用户下单，互不冲突
+     */
+    @State(Scope.Thread)
+    public static class LockName {
+        private static final AtomicLong USER_ID = new AtomicLong();
+        String name;
+
+        @Setup
+        public void setup() {
+            name = "order:" + USER_ID.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public boolean lockAndUnlock(Redis redis, LockName lockName) {
+        SimpleRedisLock lock = new SimpleRedisLock(lockName.name, redis.stringRedisTemplate);
+        boolean locked = lock.tryLock(1200);
+        lock.unlock();
+        return locked;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean lockAndUnlockConcurrent(Redis redis, LockName lockName) {
+        return lockAndUnlock(redis, lockName);
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.AsyncRedis;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.StringCodec;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接RespServer的CacheClient：同步查询走StringRedisTemplate（LettuceConnectionFactory），异步查询走AsyncRedis，
+ * 和线上一样使用Lettuce客户端，每条命令的往返时间为delayMicros
+ */
+@State(Scope.Benchmark)
+public class SlowRedis {
+
+    // Redis每个回复的延迟（us）
+    @Param({"2000"})
+    long delayMicros;
+
+    private RespServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisClient redisClient;
+    private StatefulRedisConnection<String, String> connection;
+    private CacheClient cacheClient;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new RespServer(delayMicros);
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", server.port()));
+        connectionFactory.afterPropertiesSet();
+        redisClient = RedisClient.create(RedisURI.create("127.0.0.1", server.port()));
+        connection = redisClient.connect(StringCodec.UTF8);
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        AsyncRedis asyncRedis = Fixtures.inject(new AsyncRedis(), "asyncRedisConnection", connection);
+        cacheClient = Fixtures.inject(Fixtures.cacheClient(stringRedisTemplate), "asyncRedis", asyncRedis);
+        // 缓存一小时内不过期，每次查询都是一次GET
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + 1, Fixtures.shop(1), 1L, TimeUnit.HOURS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+        redisClient.shutdown();
+        connectionFactory.destroy();
+        server.close();
+    }
+
+    /**
+     * 和ShopServiceImpl.queryById一样的同步查询
+     */
+    Shop queryShop() {
+        return cacheClient.querywithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class,
+                id -> null, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 和ShopServiceImpl.queryByIdAsync一样的异步查询
+     */
+    CompletableFuture<Shop> queryShopAsync() {
+        return cacheClient.querywithLogicalExpireAsync(RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class,
+                id -> null, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UvCounter的压测和准确性，HyperLogLog由RedisHyperLogLog按Redis的算法模拟
+ * record：4个线程记录不同访客，后台线程每10ms执行一次flush，结束时校验写入Redis的访问数没有超过记录数，且缓冲没有残留计数
+ * load：一个店铺写入visitors个不同访客，每UV_BUFFER_MAX次访问flush一次，输出PFCOUNT的误差和内存占用
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UvCounterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Concurrent {
+        final AtomicLong recorded = new AtomicLong();
+        final AtomicLong flushed = new AtomicLong();
+        UvCounter uvCounter;
+        Thread flusher;
+        volatile boolean running;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            uvCounter = Fixtures.inject(new UvCounter(), "stringRedisTemplate", new InMemoryRedisTemplate());
+            running = true;
+            flusher = new Thread(() -> {
+                while (running) {
+                    flushed.addAndGet(uvCounter.flush());
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "uv-flusher");
+            flusher.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            running = false;
+            flusher.join();
+            flushed.addAndGet(uvCounter.flush());
+            long dropped = recorded.get() - flushed.get();
+            System.out.printf("%n记录%d次访问，写入%d次，缓冲已满丢弃%d次%n", recorded.get(), flushed.get(), dropped);
+            if (dropped < 0) {
+                throw new IllegalStateException("写入的访问数超过记录数，存在重复写入");
+            }
+            // 缓冲计数如果漂移，之后的访问会被一直丢弃
+            uvCounter.record(UvCounter.TYPE_SHOP, 0L, "check");
+            if (uvCounter.flush() != 1) {
+                throw new IllegalStateException("flush后缓冲计数没有归零");
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void record(Concurrent state) {
+        long visitor = state.recorded.incrementAndGet();
+        state.uvCounter.record(UvCounter.TYPE_SHOP, visitor & 1023, Long.toString(visitor));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Load {
+        @Param({"1000000", "5000000"})
+        int visitors;
+        InMemoryRedisTemplate stringRedisTemplate;
+        UvCounter uvCounter;
+        long estimate;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            stringRedisTemplate = new InMemoryRedisTemplate();
+            uvCounter = Fixtures.inject(new UvCounter(), "stringRedisTemplate", stringRedisTemplate);
+        }
+
+        @TearDown(Level.Invocation)
+        public void report() {
+            double error = Math.abs(estimate - visitors) * 100.0 / visitors;
+            System.out.printf("%n%d个访客：PFCOUNT=%d，误差%.3f%%，HyperLogLog每个key %d字节，精确去重约%d MB%n",
+                    visitors, estimate, error, RedisHyperLogLog.DENSE_BYTES, exactBytes(visitors) >> 20);
+        }
+
+        /**
+         * 用10万个访客实测HashSet的内存，按比例估算精确去重需要的内存
+         */
+        private static long exactBytes(int visitors) {
+            int sample = 100_000;
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long before = runtime.totalMemory() - runtime.freeMemory();
+            Set<String> set = new HashSet<>();
+            for (int i = 0; i < sample; i++) {
+                set.add(Integer.toString(i));
+            }
+            System.gc();
+            long used = runtime.totalMemory() - runtime.freeMemory() - before;
+            return set.size() == sample ? used * visitors / sample : 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public long load(Load state) {
+        for (int i = 0; i < state.visitors; i++) {
+            state.uvCounter.record(UvCounter.TYPE_SHOP, 1L, Integer.toString(i));
+            if ((i + 1) % SystemConstants.UV_BUFFER_MAX == 0) {
+                state.uvCounter.flush();
+            }
+        }
+        state.uvCounter.flush();
+        state.estimate = state.uvCounter.query(UvCounter.TYPE_SHOP, 1L).get("total");
+        return state.estimate;
+    }
+}
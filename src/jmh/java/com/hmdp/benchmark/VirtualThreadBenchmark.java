@@ -0,0 +1,89 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ThreadPools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 高并发、Redis变慢时平台线程池与虚拟线程的请求延迟，请求执行的是不变的同步缓存查询
+ * 128个客户端线程并发请求，Redis每条命令的往返时间为SlowRedis.delayMicros：
+ * platform使用workers个平台线程，相当于Tomcat的工作线程池；virtual以-Dhmdp.virtual-threads=true启动，
+ * 由ThreadPools为每个请求创建虚拟线程，和VirtualThreadConfig替换Tomcat线程池的方式相同，需要JDK 21及以上：
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="VirtualThread -jvm JDK21的bin/java"
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(128)
+public class VirtualThreadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Platform {
+        @Param({"32"})
+        int workers;
+        ExecutorService executor;
+
+        @Setup
+        public void setup() {
+            executor = Executors.newFixedThreadPool(workers);
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Virtual {
+        ExecutorService executor;
+
+        @Setup
+        public void setup() throws Exception {
+            if (!ThreadPools.isVirtual()) {
+                throw new IllegalStateException("当前JDK不支持虚拟线程：" + System.getProperty("java.version"));
+            }
+            executor = ThreadPools.newVirtualThreadPerTaskExecutor("request-");
+            // 确认请求确实运行在虚拟线程上
+            boolean virtual = executor.submit(() -> (Boolean) Thread.class.getMethod("isVirtual")
+                    .invoke(Thread.currentThread())).get();
+            if (!virtual) {
+                throw new IllegalStateException("请求没有运行在虚拟线程上");
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public Shop platform(SlowRedis redis, Platform platform) throws Exception {
+        return platform.executor.submit(redis::queryShop).get();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dhmdp.virtual-threads=true")
+    public Shop virtual(SlowRedis redis, Virtual virtual) throws Exception {
+        return virtual.executor.submit(redis::queryShop).get();
+    }
+}
@@ -0,0 +1,75 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.LettuceLatencyRecorder;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.Resource;
+
+/**
+ * 异步接口使用的Lettuce连接，与StringRedisTemplate的连接相互独立，
+ * 一个连接即可支持所有并发请求的命令流水线，回调运行在Lettuce的IO线程，不能在回调中执行阻塞操作
+ * 连接参数和StringRedisTemplate一样取自spring.redis，只支持单节点
+ */
+@Configuration
+public class RedisAsyncConfig {
+
+    @Resource
+    private RedisProperties redisProperties;
+
+    /**
+     * StringRedisTemplate与异步连接共用，记录每种命令的耗时
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources lettuceClientResources() {
+        return DefaultClientResources.builder()
+                .commandLatencyRecorder(new LettuceLatencyRecorder())
+                .build();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(ClientResources lettuceClientResources) {
+        return RedisClient.create(lettuceClientResources, redisUri());
+    }
+
+    /**
+     * 按spring.redis构建连接地址：配置了url时以url为准，否则使用host、port、password、database、ssl，
+     * 超时时间、客户端名称两种方式都生效
+     */
+    private RedisURI redisUri() {
+        if (redisProperties.getSentinel() != null || redisProperties.getCluster() != null) {
+            throw new IllegalStateException("异步Redis连接只支持单节点，不支持哨兵、集群配置");
+        }
+        RedisURI uri;
+        if (StrUtil.isNotBlank(redisProperties.getUrl())) {
+            uri = RedisURI.create(redisProperties.getUrl());
+        } else {
+            uri = RedisURI.create(redisProperties.getHost(), redisProperties.getPort());
+            uri.setDatabase(redisProperties.getDatabase());
+            uri.setSsl(redisProperties.isSsl());
+            if (StrUtil.isNotEmpty(redisProperties.getPassword())) {
+                uri.setPassword(redisProperties.getPassword().toCharArray());
+            }
+        }
+        if (redisProperties.getTimeout() != null) {
+            uri.setTimeout(redisProperties.getTimeout());
+        }
+        if (StrUtil.isNotBlank(redisProperties.getClientName())) {
+            uri.setClientName(redisProperties.getClientName());
+        }
+        return uri;
+    }
+
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, String> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect(StringCodec.UTF8);
+    }
+}
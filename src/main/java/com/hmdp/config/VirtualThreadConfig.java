@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.ThreadPools;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 虚拟线程模式下，Tomcat每个请求使用一个虚拟线程处理，替换默认的工作线程池
+ */
+@Configuration
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadCustomizer() {
+        return protocolHandler -> {
+            if (ThreadPools.isVirtual()) {
+                protocolHandler.setExecutor(ThreadPools.newVirtualThreadPerTaskExecutor("tomcat-"));
+            }
+        };
+    }
+}
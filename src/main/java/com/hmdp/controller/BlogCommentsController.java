@@ -1,9 +1,13 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +21,48 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    /**
+     * 发表评论或回复
+     * @param comment 评论内容
+     * @return 评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 分页查询博客的一级评论
+     * @param blogId 博客id
+     * @param lastId 上一页最后一条评论的id，首页不传
+     * @param size 每页数量，最大为MAX_PAGE_SIZE
+     * @return
+     */
+    @GetMapping("/of/blog")
+    public Result queryBlogComments(
+            @RequestParam("blogId") Long blogId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.MAX_PAGE_SIZE) Integer size) {
+        return blogCommentsService.queryBlogComments(blogId, lastId,
+                Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 分页查询一级评论下的回复
+     * @param parentId 一级评论id
+     * @param lastId 上一页最后一条回复的id，首页不传
+     * @param size 每页数量，最大为MAX_PAGE_SIZE
+     * @return
+     */
+    @GetMapping("/replies")
+    public Result queryReplies(
+            @RequestParam("parentId") Long parentId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.MAX_PAGE_SIZE) Integer size) {
+        return blogCommentsService.queryReplies(parentId, lastId,
+                Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE)));
+    }
 }
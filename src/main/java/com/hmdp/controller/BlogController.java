@@ -1,7 +1,6 @@
 package com.hmdp.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
@@ -10,10 +9,12 @@ import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -29,6 +30,8 @@ public class BlogController {
 
     @Resource
     private IBlogService blogService;
+    @Resource
+    private UvCounter uvCounter;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -37,9 +40,18 @@ public class BlogController {
 
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
-        // 修改点赞数量
-        blogService.likeBlog(id);
-        return Result.ok();
+        // 修改点赞数量，返回点赞后的状态和数量
+        return blogService.likeBlog(id);
+    }
+
+    /**
+     * 点赞的异步版本，等待Redis时不占用Tomcat线程
+     * @param id
+     * @return
+     */
+    @PutMapping("/like/async/{id}")
+    public CompletableFuture<Result> likeBlogAsync(@PathVariable("id") Long id) {
+        return blogService.likeBlogAsync(id);
     }
 
     @GetMapping("/of/me")
@@ -47,11 +59,7 @@ public class BlogController {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
         // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        return blogService.queryBlogOfUser(user.getId(), current);
     }
 
     @GetMapping("/hot")
@@ -59,11 +67,35 @@ public class BlogController {
         return blogService.queryHotBlog(current);
     }
 
+    /**
+     * 按热度滚动分页查询博客
+     * @param max 上次查询的最小热度，第一次不传
+     * @param offset 偏移量，第一次不传，默认为0
+     * @return
+     */
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(
+            @RequestParam(value = "max", required = false) Double max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogService.queryHotBlogScroll(max, offset);
+    }
+
     @GetMapping("{id}")
-    public Result queryBlogById(@PathVariable("id") Long id){
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request){
+        uvCounter.record(UvCounter.TYPE_BLOG, id, UvCounter.visitorOf(request));
         return blogService.queryBlogById(id);
     }
 
+    /**
+     * 查询博客今天、最近7天、累计的独立访客数
+     * @param id
+     * @return
+     */
+    @GetMapping("uv/{id}")
+    public Result queryBlogUv(@PathVariable("id") Long id){
+        return Result.ok(uvCounter.query(UvCounter.TYPE_BLOG, id));
+    }
+
     /**
      * 查询该blog的点赞排行榜
      * @param id
@@ -79,24 +111,37 @@ public class BlogController {
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam("id") Long id) {
         // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        return blogService.queryBlogOfUser(id, current);
     }
 
     /**
      * 实现滑动分页查询个人推送信息
      * @param max  上次查询最小时间戳，即本次查询最大最大时间戳，第一次是会传递当前时间戳
      * @param offset 偏移量，第一次也不会传递，所以默认为0
+     * @param cursor 上一页返回的nextCursor，传递后忽略lastId和offset
+     * @param size 每页数量，最大为MAX_PAGE_SIZE
      * @return
      */
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(
-            @RequestParam("lastId") Long max,
-            @RequestParam(value = "offset", defaultValue = "0") Integer offset
+            @RequestParam(value = "lastId", required = false) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.FEED_PAGE_SIZE) Integer size
+    ){
+        return blogService.queryBlogOfFollow(max, offset, cursor, size);
+    }
+
+    /**
+     * 滚动分页查询关注推送的异步版本，参数与/of/follow相同
+     */
+    @GetMapping("/of/follow/async")
+    public CompletableFuture<Result> queryBlogOfFollowAsync(
+            @RequestParam(value = "lastId", required = false) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.FEED_PAGE_SIZE) Integer size
     ){
-        return blogService.queryBlogOfFollow(max, offset);
+        return blogService.queryBlogOfFollowAsync(max, offset, cursor, size);
     }
 }
@@ -3,9 +3,11 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IFollowService;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -32,12 +34,47 @@ public class FollowController {
     }
 
     /**
-     * 返回当前用户和目标用户的共同关注用户
+     * 批量查询当前用户是否关注了这些用户
+     * @param ids 用户id，以逗号分隔
+     * @return 用户id -> 是否关注
+     */
+    @GetMapping("/or/not")
+    public Result isFollowBatch(@RequestParam("ids") List<Long> ids){
+        return followService.isFollowBatch(ids);
+    }
+
+    /**
+     * 查询用户的关注数和粉丝数
      * @param id
      * @return
      */
+    @GetMapping("/count/{id}")
+    public Result queryFollowCount(@PathVariable("id") Long id){
+        return followService.queryFollowCount(id);
+    }
+
+    /**
+     * 返回当前用户可能认识的人，按推荐得分排序
+     * @param count 返回数量，最大为MAX_PAGE_SIZE
+     * @return
+     */
+    @GetMapping("/suggest")
+    public Result querySuggest(@RequestParam(value = "count", defaultValue = "" + SystemConstants.MAX_PAGE_SIZE) Integer count){
+        return followService.querySuggest(Math.max(1, Math.min(count, SystemConstants.MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 分页返回当前用户和目标用户的共同关注用户
+     * @param id
+     * @param offset 偏移量，默认为0
+     * @param size 每页数量，最大为MAX_PAGE_SIZE
+     * @return 当前页的用户，total为共同关注总数
+     */
     @GetMapping("common/{id}")
-    public Result followCommons(@PathVariable Long id){
-        return followService.followCommons(id);
+    public Result followCommons(@PathVariable Long id,
+                                @RequestParam(value = "offset", defaultValue = "0") Integer offset,
+                                @RequestParam(value = "size", defaultValue = "" + SystemConstants.MAX_PAGE_SIZE) Integer size){
+        return followService.followCommons(id, Math.max(offset, 0),
+                Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE)));
     }
 }
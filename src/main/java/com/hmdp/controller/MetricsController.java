@@ -0,0 +1,24 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.Metrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 查询进程内的指标：接口、缓存、Redis命令、SQL语句的耗时分布和吞吐量，秒杀各阶段耗时和结果，秒杀队列长度
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    /**
+     * 查询当前节点的所有指标，耗时单位为毫秒，rate为最近60秒的每秒次数
+     * @return
+     */
+    @GetMapping
+    public Result queryMetrics() {
+        return Result.ok(Metrics.snapshot());
+    }
+}
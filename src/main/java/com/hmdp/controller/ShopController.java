@@ -1,16 +1,18 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -28,18 +30,43 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvCounter uvCounter;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        uvCounter.record(UvCounter.TYPE_SHOP, id, UvCounter.visitorOf(request));
         // return Result.ok(shopService.getById(id));
         // log.info("查询商铺信息：{}", id);
         return shopService.queryById(id);
     }
 
+    /**
+     * 根据id查询商铺信息的异步版本，等待Redis时不占用Tomcat线程
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    @GetMapping("/async/{id}")
+    public CompletableFuture<Result> queryShopByIdAsync(@PathVariable("id") Long id, HttpServletRequest request) {
+        uvCounter.record(UvCounter.TYPE_SHOP, id, UvCounter.visitorOf(request));
+        return shopService.queryByIdAsync(id);
+    }
+
+    /**
+     * 查询商铺今天、最近7天、累计的独立访客数
+     * @param id 商铺id
+     * @return
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryShopUv(@PathVariable("id") Long id) {
+        return Result.ok(uvCounter.query(UvCounter.TYPE_SHOP, id));
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -47,10 +74,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -70,6 +95,7 @@ public class ShopController {
      * @param current 页码
      * @param x 经度
      * @param y 纬度
+     * @param cursor 按坐标查询时的游标，首页传空字符串，之后传上一页返回的nextCursor，传递后忽略current
      * @return
      */
     @GetMapping("/of/type")
@@ -77,7 +103,8 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
             ) {
         // // 根据类型分页查
         // Page<Shop> page = shopService.query()
@@ -85,25 +112,40 @@ public class ShopController {
         //         .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
         // // 返回数据
         // return Result.ok(page.getRecords());
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, cursor);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
+     * @param typeId 商铺类型，可选
+     * @param area 商圈，可选
      * @param current 页码
+     * @param cursor 游标，首页传空字符串，之后传上一页返回的nextCursor，传递后忽略current
      * @return 商铺列表
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByName(name, typeId, area, current, cursor);
+    }
+
+    /**
+     * 店铺名称和商圈的输入联想
+     * @param prefix 已输入的前缀
+     * @param count 返回数量，最大为SUGGEST_TOP_K
+     * @return 按人气降序的补全列表
+     */
+    @GetMapping("/suggest")
+    public Result suggest(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "count", defaultValue = "" + SystemConstants.SUGGEST_TOP_K) Integer count
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.suggest(prefix, Math.max(1, Math.min(count, SystemConstants.SUGGEST_TOP_K)));
     }
 }
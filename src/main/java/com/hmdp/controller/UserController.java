@@ -1,12 +1,12 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -35,6 +35,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
@@ -90,15 +93,50 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
-        // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        // 查询详情，走用户信息缓存
+        UserDTO userDTO = userService.queryUserDTOById(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
 
+    /**
+     * 修改当前登录用户的昵称、头像
+     * @param user 只读取nickName和icon
+     * @return 无
+     */
+    @PutMapping("/me")
+    public Result updateMe(@RequestBody User user){
+        return userService.updateUser(user);
+    }
+
+    /**
+     * 当前用户今天签到
+     * @return 今天是否是第一次签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 当前用户截止到今天的连续签到天数
+     * @return
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
 
+    /**
+     * 当前用户某月的签到天数和签到日期
+     * @param month 年月，例如202601，默认为本月
+     * @return
+     */
+    @GetMapping("/sign/month")
+    public Result signOfMonth(@RequestParam(value = "month", required = false) Integer month){
+        return signService.signOfMonth(month);
+    }
 }
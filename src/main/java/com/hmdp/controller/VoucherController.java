@@ -3,7 +3,9 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillReconciler;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -22,6 +24,10 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillReconciler seckillReconciler;
 
     /**
      * 新增普通券
@@ -30,10 +36,20 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 修改优惠券信息
+     * @param voucher 优惠券信息，秒杀券可以包含开始、结束时间
+     * @return 无
+     */
+    @PutMapping
+    public Result updateVoucher(@RequestBody Voucher voucher) {
+        return voucherService.updateVoucher(voucher);
+    }
+
     /**
      * 新增秒杀券
      * @param voucher 优惠券信息，包含秒杀信息
@@ -45,6 +61,25 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 查询秒杀统计
+     * @param id 优惠券id
+     * @return 请求数、抢到数、售罄时间、剩余库存
+     */
+    @GetMapping("seckill/metrics/{id}")
+    public Result querySeckillMetrics(@PathVariable("id") Long id) {
+        return Result.ok(seckillVoucherService.queryMetrics(id));
+    }
+
+    /**
+     * 查询最近一次秒杀库存对账报告
+     * @return 有不一致的秒杀券及已执行的修复
+     */
+    @GetMapping("seckill/reconcile")
+    public Result querySeckillReconcile() {
+        return Result.ok(seckillReconciler.queryReport());
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
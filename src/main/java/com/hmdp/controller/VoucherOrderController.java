@@ -12,6 +12,8 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  前端控制器
@@ -31,4 +33,15 @@ public class VoucherOrderController {
     {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 秒杀下单的异步版本，等待Redis时不占用Tomcat线程
+     * @param voucherId
+     * @return
+     */
+    @PostMapping("seckill/async/{id}")
+    public CompletableFuture<Result> seckillVoucherAsync(@PathVariable("id") Long voucherId)
+    {
+        return voucherOrderService.seckillVoucherAsync(voucherId);
+    }
 }
@@ -0,0 +1,13 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LikeResult {
+    private Boolean isLike;  // 操作后当前用户是否点赞
+    private Long liked;  // 操作后的点赞数
+}
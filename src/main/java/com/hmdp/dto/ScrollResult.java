@@ -9,4 +9,6 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;  // 上次查询的博客的最小时间戳
     private Integer offset;
+    private Double minScore;  // 按分数滚动分页时，上次查询的最小分数
+    private String nextCursor;  // 下一页的游标，不透明字符串，原样传回即可
 }
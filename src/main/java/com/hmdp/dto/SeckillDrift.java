@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class SeckillDrift {
+    private Long voucherId;
+    private Integer total;  // 第一次预热时记录的总库存
+    private Integer dbStock;
+    private Long orders;  // 数据库中的订单数
+    private Integer redisStock;
+    private Long buyers;  // Redis中已下单的用户数
+    private Long ordersWithoutBuyer;  // 有订单但不在Redis已下单用户中，可能重复下单
+    private Long buyersWithoutOrder;  // 抢到资格但没有订单，秒杀期间可能还在队列中
+    private Long redisStockDrift;  // Redis库存 - (总库存 - 已下单用户数)
+    private Integer dbStockDrift;  // 数据库库存 - (总库存 - 订单数)
+    private Boolean oversold;
+    private Boolean settled;  // 秒杀已结束且队列已处理完，可以修复数据库
+    private List<String> actions = new ArrayList<>();
+}
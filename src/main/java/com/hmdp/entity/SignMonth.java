@@ -0,0 +1,51 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 按月归档的签到记录，一个用户一个月一行
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_sign_month")
+public class SignMonth implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到的年月，例如202601
+     */
+    private Integer month;
+
+    /**
+     * 当月的签到位图，31位，最高位为1号，与Redis中 BITFIELD GET u31 0 的结果一致
+     */
+    private Integer bitmap;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+}
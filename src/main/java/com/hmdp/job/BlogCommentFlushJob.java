@@ -0,0 +1,65 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.BlogCommentCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_COMMENTS_FLUSH_KEY;
+
+/**
+ * 定时把Redis中的博客评论数批量写回数据库
+ */
+@Slf4j
+@Component
+public class BlogCommentFlushJob {
+
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    @Resource
+    private BlogCommentCounter blogCommentCounter;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.comment-flush-interval:5000}")
+    public void flushCommentCount() {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_COMMENTS_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.取出有新评论的博客
+            Set<String> dirty = blogCommentCounter.takeDirty();
+            if (dirty.isEmpty()) {
+                return;
+            }
+            // 2.读取最新的评论数，写回的是绝对值，重复写回也不会出错
+            List<Long> ids = dirty.stream().map(Long::valueOf).collect(Collectors.toList());
+            Map<Long, Integer> counts = blogCommentCounter.getCounts(ids);
+            List<Blog> blogs = new ArrayList<>(counts.size());
+            counts.forEach((id, comments) -> blogs.add(new Blog().setId(id).setComments(comments)));
+            // 3.批量更新数据库
+            blogService.updateBatchById(blogs, FLUSH_BATCH_SIZE);
+            blogCommentCounter.finishDirty();
+            log.debug("评论数写回数据库，共{}篇博客", blogs.size());
+        } catch (Exception e) {
+            // processing集合保留，下次重试
+            log.error("评论数写回数据库失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
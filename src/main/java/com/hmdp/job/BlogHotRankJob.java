@@ -0,0 +1,48 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.BlogHotRanker;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_HOT_KEY;
+
+/**
+ * 定时以数据库为准重建热门博客排行榜
+ */
+@Slf4j
+@Component
+public class BlogHotRankJob {
+
+    @Resource
+    private BlogHotRanker blogHotRanker;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Scheduled(initialDelayString = "${hmdp.blog.hot-rebuild-initial-delay:10000}",
+            fixedDelayString = "${hmdp.blog.hot-rebuild-interval:600000}")
+    public void rebuildHotRank() {
+        // 多个节点只需要一个节点执行
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            blogHotRanker.rebuild();
+            // 排行榜变化后，删除首页缓存
+            stringRedisTemplate.delete(CACHE_BLOG_HOT_KEY);
+        } catch (Exception e) {
+            log.error("重建热门博客排行榜失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
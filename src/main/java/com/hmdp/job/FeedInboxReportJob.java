@@ -0,0 +1,40 @@
+package com.hmdp.job;
+
+import com.hmdp.service.IFeedService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 定时输出收件箱占用报告，同时清理user:active中长期未活跃的用户
+ */
+@Slf4j
+@Component
+public class FeedInboxReportJob {
+
+    @Resource
+    private IFeedService feedService;
+
+    @Scheduled(cron = "${hmdp.feed.inbox-report-cron:0 0 4 * * ?}")
+    public void reportInboxSizes() {
+        try {
+            Map<String, Map<String, Long>> report = feedService.reportInboxSizes();
+            report.forEach((bucket, stats) -> log.info("收件箱条数{}：{}", bucket, stats));
+        } catch (Exception e) {
+            log.error("统计收件箱占用失败", e);
+        }
+    }
+
+    @Scheduled(cron = "${hmdp.feed.inbox-report-cron:0 0 4 * * ?}")
+    public void trimActiveUsers() {
+        try {
+            long removed = feedService.trimActiveUsers();
+            log.info("清理不活跃用户{}个", removed);
+        } catch (Exception e) {
+            log.error("清理不活跃用户失败", e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.FollowSuggester;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.LOCK_FOLLOW_SUGGEST_KEY;
+
+/**
+ * 定时计算被标记为脏的推荐列表：取关后需要重新计算的，以及查询时还没有推荐列表的
+ */
+@Slf4j
+@Component
+public class FollowSuggestJob {
+
+    // 每次最多重新计算的用户数量
+    private static final int REFRESH_BATCH_SIZE = 100;
+
+    @Resource
+    private FollowSuggester followSuggester;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(fixedDelayString = "${hmdp.follow.suggest-refresh-interval:10000}")
+    public void refreshSuggestions() {
+        // 多个节点只需要一个节点执行
+        RLock lock = redissonClient.getLock(LOCK_FOLLOW_SUGGEST_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            List<String> userIds = followSuggester.popDirty(REFRESH_BATCH_SIZE);
+            for (String userId : userIds) {
+                followSuggester.compute(Long.valueOf(userId));
+            }
+        } catch (Exception e) {
+            log.error("重新计算关注推荐失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.job;
+
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_LIFECYCLE_KEY;
+
+/**
+ * 秒杀券生命周期：开始前预热到Redis，结束后输出统计，库存对账由SeckillReconcileJob负责，Redis中的数据到期自动过期
+ */
+@Slf4j
+@Component
+public class SeckillLifecycleJob {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.lifecycle-initial-delay:10000}",
+            fixedDelayString = "${hmdp.seckill.lifecycle-interval:60000}")
+    public void run() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_LIFECYCLE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.预热即将开始的秒杀券
+            int loaded = seckillVoucherService.preloadUpcoming();
+            // 2.输出已经结束的秒杀券的统计
+            int finished = seckillVoucherService.finishEnded();
+            if (loaded > 0 || finished > 0) {
+                log.info("秒杀券预热{}张，结束{}张", loaded, finished);
+            }
+        } catch (Exception e) {
+            log.error("秒杀券生命周期任务失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.job;
+
+import com.hmdp.dto.SeckillDrift;
+import com.hmdp.utils.SeckillReconciler;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
+
+/**
+ * 定时对账秒杀券的Redis库存、已下单用户与数据库库存、订单
+ */
+@Slf4j
+@Component
+public class SeckillReconcileJob {
+
+    @Resource
+    private SeckillReconciler seckillReconciler;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.lifecycle-initial-delay:10000}",
+            fixedDelayString = "${hmdp.seckill.reconcile-interval:300000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            List<SeckillDrift> report = seckillReconciler.reconcile();
+            if (!report.isEmpty()) {
+                log.warn("秒杀库存对账完成，{}张秒杀券不一致", report.size());
+            }
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.ShopGeoIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_GEO_KEY;
+
+/**
+ * 定时以数据库为准重建店铺地理位置索引
+ */
+@Slf4j
+@Component
+public class ShopGeoRebuildJob {
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(initialDelayString = "${hmdp.shop.geo-rebuild-initial-delay:10000}",
+            fixedDelayString = "${hmdp.shop.geo-rebuild-interval:3600000}")
+    public void rebuildGeoIndex() {
+        // 多个节点只需要一个节点执行
+        RLock lock = redissonClient.getLock(LOCK_SHOP_GEO_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            shopGeoIndex.rebuild();
+        } catch (Exception e) {
+            log.error("重建店铺地理位置索引失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
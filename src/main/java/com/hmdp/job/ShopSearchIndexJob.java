@@ -0,0 +1,28 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.ShopSearchIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 启动后从数据库构建店铺搜索索引并定时重建，索引在每个节点的内存中，所以每个节点都要执行
+ */
+@Slf4j
+@Component
+public class ShopSearchIndexJob {
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.search-refresh-interval:600000}")
+    public void rebuildSearchIndex() {
+        try {
+            shopSearchIndex.rebuild();
+        } catch (Exception e) {
+            log.error("重建店铺搜索索引失败", e);
+        }
+    }
+}
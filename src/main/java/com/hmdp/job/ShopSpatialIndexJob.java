@@ -0,0 +1,32 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.ShopSpatialIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时从数据库重建本地店铺空间索引，索引在每个节点的内存中，所以每个节点都要执行
+ */
+@Slf4j
+@Component
+public class ShopSpatialIndexJob {
+
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+
+    @Scheduled(initialDelayString = "${hmdp.shop.geo-rebuild-initial-delay:10000}",
+            fixedDelayString = "${hmdp.shop.local-geo-refresh-interval:600000}")
+    public void rebuildSpatialIndex() {
+        if (!shopSpatialIndex.isEnabled()) {
+            return;
+        }
+        try {
+            shopSpatialIndex.rebuild();
+        } catch (Exception e) {
+            log.error("重建本地店铺空间索引失败", e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.ShopSuggestTrie;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 启动后从数据库构建店铺输入联想，定期把新出现的补全词合并进前缀树，索引在每个节点的内存中，所以每个节点都要执行
+ */
+@Slf4j
+@Component
+public class ShopSuggestJob {
+
+    @Resource
+    private ShopSuggestTrie shopSuggestTrie;
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.search-refresh-interval:600000}")
+    public void reloadSuggestions() {
+        try {
+            shopSuggestTrie.reload();
+        } catch (Exception e) {
+            log.error("重建店铺输入联想失败", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.shop.suggest-refresh-interval:10000}")
+    public void refreshSuggestions() {
+        try {
+            shopSuggestTrie.refreshIfDirty();
+        } catch (Exception e) {
+            log.error("更新店铺输入联想失败", e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.hmdp.job;
+
+import com.hmdp.service.ISignService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SIGN_ARCHIVE_KEY;
+
+/**
+ * 定时把过期月份的签到位图归档到数据库
+ */
+@Slf4j
+@Component
+public class SignArchiveJob {
+
+    @Resource
+    private ISignService signService;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(cron = "${hmdp.sign.archive-cron:0 0 3 1 * ?}")
+    public void archiveSigns() {
+        // 多个节点只需要一个节点执行
+        RLock lock = redissonClient.getLock(LOCK_SIGN_ARCHIVE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            int archived = signService.archive();
+            log.info("签到位图归档完成，共{}个", archived);
+        } catch (Exception e) {
+            log.error("签到位图归档失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.UvCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时把本地缓冲的访问记录写入Redis，缓冲在每个节点的内存中，所以每个节点都要执行
+ */
+@Slf4j
+@Component
+public class UvFlushJob {
+
+    @Resource
+    private UvCounter uvCounter;
+
+    @Scheduled(fixedDelayString = "${hmdp.uv.flush-interval:1000}")
+    public void flushUv() {
+        try {
+            uvCounter.flush();
+        } catch (Exception e) {
+            log.error("写入访客统计失败", e);
+        }
+    }
+}
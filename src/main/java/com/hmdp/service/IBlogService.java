@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,13 +18,21 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    Result queryHotBlogScroll(Double max, Integer offset);
+
     Result queryBlogById(Long id);
 
-    void likeBlog(Long id);
+    Result queryBlogOfUser(Long userId, Integer current);
+
+    Result likeBlog(Long id);
+
+    CompletableFuture<Result> likeBlogAsync(Long id);
 
     Result queryBlogLikes(Long id);
 
     Result saveBlog(Blog blog);
 
-    Result queryBlogOfFollow(Long max, Integer offset);
+    Result queryBlogOfFollow(Long max, Integer offset, String cursor, Integer size);
+
+    CompletableFuture<Result> queryBlogOfFollowAsync(Long max, Integer offset, String cursor, Integer size);
 }
@@ -0,0 +1,29 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.Blog;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *  关注推送服务类，普通作者推模式写粉丝收件箱，大V作者拉模式读发件箱
+ * </p>
+ */
+public interface IFeedService {
+
+    void pushBlog(Blog blog);
+
+    List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, Long max, Integer offset, Long lastId, int count);
+
+    Map<String, Map<String, Long>> reportInboxSizes();
+
+    long trimActiveUsers();
+
+    long getLastPushLag();
+
+    long getMaxPushLag();
+
+    long getPendingPushTasks();
+}
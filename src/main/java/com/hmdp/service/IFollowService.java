@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +20,17 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
-    Result followCommons(Long id);
+    Result isFollowBatch(List<Long> followUserIds);
+
+    Result queryFollowCount(Long userId);
+
+    long queryFansCount(Long userId);
+
+    Result followCommons(Long id, Integer offset, Integer size);
+
+    Result querySuggest(Integer count);
+
+    boolean ensureFollowsLoaded(Long userId);
+
+    boolean ensureFansLoaded(Long userId);
 }
@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +15,35 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 把秒杀券的库存、秒杀时间、已下单用户加载到Redis，已经存在的库存不会被覆盖
+     * @param voucher
+     */
+    void preload(SeckillVoucher voucher);
+
+    /**
+     * 秒杀券未预热时按需预热，同一张券只由一个线程加载，其他线程等待加载完成；已经结束的秒杀券不加载
+     * @param voucherId
+     * @return 秒杀券，不存在时返回null
+     */
+    SeckillVoucher preloadOnMiss(Long voucherId);
+
+    /**
+     * 预热即将开始的秒杀券
+     * @return 本次预热的数量
+     */
+    int preloadUpcoming();
+
+    /**
+     * 输出已经结束的秒杀券的统计，并标记为已结束
+     * @return 本次处理的数量
+     */
+    int finishEnded();
+
+    /**
+     * 查询秒杀统计：请求数、抢到数、售罄时间、剩余库存
+     * @param voucherId
+     * @return
+     */
+    Map<String, Object> queryMetrics(Long voucherId);
 }
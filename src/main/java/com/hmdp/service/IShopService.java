@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +18,20 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 根据id查询商铺的异步版本，读取缓存使用Lettuce异步命令
+     * @param id
+     * @return
+     */
+    CompletableFuture<Result> queryByIdAsync(Long id);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor);
+
+    Result queryShopByName(String name, Long typeId, String area, Integer current, String cursor);
+
+    Result suggest(String prefix, Integer count);
 }
@@ -0,0 +1,21 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SignMonth;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  签到服务类
+ * </p>
+ */
+public interface ISignService extends IService<SignMonth> {
+
+    Result sign();
+
+    Result signCount();
+
+    Result signOfMonth(Integer month);
+
+    int archive();
+}
@@ -1,14 +1,39 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogCommentCounter;
+import com.hmdp.utils.UserHolder;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
+ *  评论保存在数据库，每篇博客的一级评论id保存在 blog:comments:blogId、每条一级评论的回复id保存在 comment:replies:commentId，
+ *  分数为评论id（即发布顺序），不存在时从数据库懒加载，加载完整后才出现并按COMMENT_IDS_TTL过期；评论内容缓存在 cache:comment:id
  * </p>
  *
  * @author 虎哥
@@ -17,4 +42,251 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    // 懒加载评论id时每批查询的数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 评论id集合的占位成员，分数为0，集合存在即表示已从数据库加载
+    private static final String PLACEHOLDER = "0";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private BlogCommentCounter blogCommentCounter;
+    @Resource
+    private RedissonClient redissonClient;
+
+    private static final DefaultRedisScript<Long> COMMENT_ID_ADD_SCRIPT;
+
+    static {
+        COMMENT_ID_ADD_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_ID_ADD_SCRIPT.setLocation(new ClassPathResource("comment_id_add.lua"));
+        COMMENT_ID_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 发表评论或回复
+     * @param comment 回复一级评论时parentId为一级评论id，回复其中的某条回复时answerId为该回复的id
+     * @return 评论id
+     */
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验参数
+        if(comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())){
+            return Result.fail("评论内容不能为空！");
+        }
+        long parentId = comment.getParentId() == null ? 0 : comment.getParentId();
+        long answerId = comment.getAnswerId() == null ? 0 : comment.getAnswerId();
+        if(parentId == 0){
+            answerId = 0;
+        }else{
+            // 回复只能挂在同一篇博客的一级评论下
+            BlogComments parent = queryCommentById(parentId);
+            if(parent == null || !parent.getBlogId().equals(comment.getBlogId()) || parent.getParentId() != 0){
+                return Result.fail("回复的评论不存在！");
+            }
+            if(answerId == 0){
+                answerId = parentId;
+            }else if(answerId != parentId){
+                BlogComments answer = queryCommentById(answerId);
+                if(answer == null || answer.getParentId() != parentId){
+                    return Result.fail("回复的评论不存在！");
+                }
+            }
+        }
+        // 2.确保博客存在，并初始化评论计数器
+        if(!blogCommentCounter.ensure(comment.getBlogId())){
+            return Result.fail("博客不存在！");
+        }
+        // 3.保存到数据库
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setParentId(parentId);
+        comment.setAnswerId(answerId);
+        comment.setLiked(0);
+        comment.setStatus(false);
+        save(comment);
+        // 4.已加载的id集合中加入新评论，未加载的下次查询时会从数据库加载
+        String key = parentId == 0 ? BLOG_COMMENTS_KEY + comment.getBlogId() : COMMENT_REPLIES_KEY + parentId;
+        stringRedisTemplate.execute(COMMENT_ID_ADD_SCRIPT, Collections.singletonList(key), comment.getId().toString());
+        // 5.评论数+1，由定时任务写回数据库
+        blogCommentCounter.incr(comment.getBlogId());
+        return Result.ok(comment.getId());
+    }
+
+    /**
+     * 分页查询博客的一级评论，回复通过queryReplies按需加载
+     * @param blogId
+     * @param lastId 上一页最后一条评论的id，首页为null
+     * @param size 每页数量
+     * @return 按发布时间倒序的评论
+     */
+    @Override
+    public Result queryBlogComments(Long blogId, Long lastId, Integer size) {
+        String key = BLOG_COMMENTS_KEY + blogId;
+        ensureLoaded(key, "blog_id", blogId, true);
+        return Result.ok(queryPage(key, lastId, size));
+    }
+
+    /**
+     * 分页查询一级评论下的回复
+     * @param parentId 一级评论id
+     * @param lastId 上一页最后一条回复的id，首页为null
+     * @param size 每页数量
+     * @return 按发布时间正序的回复
+     */
+    @Override
+    public Result queryReplies(Long parentId, Long lastId, Integer size) {
+        String key = COMMENT_REPLIES_KEY + parentId;
+        ensureLoaded(key, "parent_id", parentId, false);
+        // 回复按时间正序  zrangebyscore key (lastId +inf limit 0 size
+        Set<String> members = stringRedisTemplate.opsForZSet().rangeByScore(
+                key, lastId == null ? 1 : lastId + 1, Double.MAX_VALUE, 0, size);
+        return Result.ok(hydrate(members));
+    }
+
+    /**
+     * 一级评论按时间倒序  zrevrangebyscore key (lastId 1 limit 0 size
+     */
+    private List<BlogComments> queryPage(String key, Long lastId, Integer size) {
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRangeByScore(
+                key, 1, lastId == null ? Double.MAX_VALUE : lastId - 1, 0, size);
+        return hydrate(members);
+    }
+
+    /**
+     * 查询评论内容并批量填充用户信息
+     */
+    private List<BlogComments> hydrate(Set<String> members) {
+        if(members == null || members.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<BlogComments> comments = queryCommentsByIds(ids);
+        List<Long> userIds = comments.stream().map(BlogComments::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if(user != null){
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+        return comments;
+    }
+
+    private BlogComments queryCommentById(Long id) {
+        List<BlogComments> comments = queryCommentsByIds(Collections.singletonList(id));
+        return comments.isEmpty() ? null : comments.get(0);
+    }
+
+    /**
+     * 批量查询评论内容：MGET读取缓存，未命中的一次查询数据库，再用pipeline写回缓存
+     * @return 按ids顺序返回，不存在的评论不返回
+     */
+    private List<BlogComments> queryCommentsByIds(List<Long> ids) {
+        List<String> keys = ids.stream().map(id -> CACHE_COMMENT_KEY + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, BlogComments> map = new HashMap<>(ids.size());
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if(StrUtil.isNotBlank(json)){
+                map.put(ids.get(i), JSONUtil.toBean(json, BlogComments.class));
+            }else{
+                missIds.add(ids.get(i));
+            }
+        }
+        if(!missIds.isEmpty()){
+            List<BlogComments> comments = listByIds(missIds);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (BlogComments comment : comments) {
+                    conn.setEx(CACHE_COMMENT_KEY + comment.getId(),
+                            TimeUnit.MINUTES.toSeconds(CACHE_COMMENT_TTL), JSONUtil.toJsonStr(comment));
+                }
+                return null;
+            });
+            comments.forEach(comment -> map.put(comment.getId(), comment));
+        }
+        List<BlogComments> result = new ArrayList<>(map.size());
+        for (Long id : ids) {
+            BlogComments comment = map.get(id);
+            // 被举报或禁止查看的评论不展示
+            if(comment != null && !Boolean.TRUE.equals(comment.getStatus())){
+                result.add(comment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 评论id集合不存在时从数据库加载，同一个集合只由一个线程加载，其他线程等待加载完成
+     * 先分批写入临时key，写入占位成员后改名，读者不会看到加载了一半的集合
+     */
+    private void ensureLoaded(String key, String column, Long value, boolean topLevel) {
+        if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+            return;
+        }
+        // 1.获取锁，等待超时就按集合不存在返回空
+        RLock lock = redissonClient.getLock(LOCK_COMMENT_IDS_KEY + key);
+        try {
+            if(!lock.tryLock(LOCK_COMMENT_IDS_WAIT, TimeUnit.SECONDS)){
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            // 2.等锁期间其他线程已经加载完成
+            if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+                return;
+            }
+            // 3.写入临时key，改名后生效
+            String tmpKey = key + ":tmp:" + UUID.randomUUID().toString(true);
+            long lastId = loadIds(tmpKey, column, value, topLevel, 0);
+            stringRedisTemplate.opsForZSet().add(tmpKey, PLACEHOLDER, 0);
+            stringRedisTemplate.expire(tmpKey, COMMENT_IDS_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.rename(tmpKey, key);
+            // 4.改名前发表的评论因为集合不存在没有写入，补上最后一批之后的评论
+            loadIds(key, column, value, topLevel, lastId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按id分批查询id大于lastId的评论，用pipeline写入集合
+     * @return 最后一条评论的id
+     */
+    private long loadIds(String key, String column, Long value, boolean topLevel, long lastId) {
+        while (true) {
+            List<BlogComments> comments = query()
+                    .select("id")
+                    .eq(column, value)
+                    .eq(topLevel, "parent_id", 0)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_BATCH_SIZE)
+                    .list();
+            if(comments.isEmpty()){
+                return lastId;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (BlogComments comment : comments) {
+                    conn.zAdd(key, comment.getId(), comment.getId().toString());
+                }
+                // 临时key加载中断时也会过期
+                conn.expire(key, TimeUnit.MINUTES.toSeconds(COMMENT_IDS_TTL));
+                return null;
+            });
+            lastId = comments.get(comments.size() - 1).getId();
+            if(comments.size() < LOAD_BATCH_SIZE){
+                return lastId;
+            }
+        }
+    }
 }
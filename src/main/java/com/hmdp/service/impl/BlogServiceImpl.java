@@ -1,33 +1,45 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.LikeResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
+import com.hmdp.service.IFeedService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncRedis;
+import com.hmdp.utils.BlogHotRanker;
+import com.hmdp.utils.BlogLikeCounter;
+import com.hmdp.utils.ScrollCursor;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ThreadPools;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -37,6 +49,7 @@ import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
     @Resource
@@ -48,86 +61,315 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IFollowService followService;
+    private IFeedService feedService;
     
+    @Resource
+    private BlogHotRanker blogHotRanker;
+    @Resource
+    private BlogLikeCounter blogLikeCounter;
+    @Resource
+    private AsyncRedis asyncRedis;
+
+    /**
+     * 按热度分页查询博客，热度排行榜维护在Redis的blog:hot中，首页渲染结果额外缓存
+     * @param current
+     * @return
+     */
     @Override
     public Result queryHotBlog(Integer current) {
-        Page<Blog> page = blogService.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
+        // 1.首页优先查询缓存，缓存中的blog不包含当前用户的点赞状态
+        if(current == 1){
+            String json = stringRedisTemplate.opsForValue().get(CACHE_BLOG_HOT_KEY);
+            if(StrUtil.isNotBlank(json)){
+                List<Blog> blogs = JSONUtil.toList(json, Blog.class);
+                fillBlogLikeState(blogs);
+                return Result.ok(blogs);
+            }
+        }
+        // 2.排行榜还未建立（首次启动），退化为数据库查询
+        if(!blogHotRanker.exists()){
+            Page<Blog> page = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            List<Blog> records = page.getRecords();
+            queryBlogUsers(records);
+            fillBlogLikeState(records);
+            return Result.ok(records);
+        }
+        // 3.按排名查询当前页的blogId  zrevrange blog:hot start end
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> idSet = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        if(idSet == null || idSet.isEmpty()){
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 4.查询blog及作者
+        List<Blog> blogs = queryBlogsByIds(ids);
+        queryBlogUsers(blogs);
+        // 5.缓存渲染后的首页
+        if(current == 1){
+            stringRedisTemplate.opsForValue().set(CACHE_BLOG_HOT_KEY, JSONUtil.toJsonStr(blogs),
+                    CACHE_BLOG_HOT_TTL, TimeUnit.SECONDS);
+        }
+        fillBlogLikeState(blogs);
+        return Result.ok(blogs);
+    }
+
+    /**
+     * 按热度滚动分页查询博客
+     * @param max 上次查询的最小热度，第一次不传
+     * @param offset 与上次最小热度相同的博客数量
+     * @return
+     */
+    @Override
+    public Result queryHotBlogScroll(Double max, Integer offset) {
+        // 1.查询排行榜  zrevrangebyscore blog:hot max -inf withscores limit offset count
+        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY,
+                        max == null ? Double.POSITIVE_INFINITY : max, offset, SystemConstants.MAX_PAGE_SIZE);
+        if(typedTuples == null || typedTuples.isEmpty()){
+            return Result.ok();
+        }
+        // 2.解析blogId、最小热度及其数量
+        List<Long> ids = new ArrayList<>(typedTuples.size());
+        double minScore = 0;
+        int offsetCount = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            double score = tuple.getScore();
+            if(offsetCount > 0 && score == minScore){
+                offsetCount++;
+            }else{
+                minScore = score;
+                offsetCount = 1;
+            }
+        }
+        // 如果整页的热度都与上次最小热度相同，需要累加上次的偏移量
+        if(max != null && minScore == max){
+            offsetCount += offset;
+        }
+        // 3.查询blog及作者、点赞状态
+        List<Blog> blogs = queryBlogsByIds(ids);
+        queryBlogUsers(blogs);
+        fillBlogLikeState(blogs);
+        // 4.封装并返回
+        ScrollResult result = new ScrollResult();
+        result.setList(blogs);
+        result.setOffset(offsetCount);
+        result.setMinScore(minScore);
+        return Result.ok(result);
+    }
+
+    // 博客本地缓存（一级缓存），保存json字符串，每次读取都反序列化为新对象，避免填充用户信息时修改到缓存
+    private static final LRUCache<Long, String> BLOG_LOCAL_CACHE =
+            CacheUtil.newLRUCache(SystemConstants.BLOG_LOCAL_CACHE_SIZE, SystemConstants.BLOG_LOCAL_CACHE_TTL);
+
+    // 预取下一页的线程池，预取只是优化，排队超过100个时直接丢弃
+    private static final ExecutorService BLOG_PREFETCH_EXECUTOR = ThreadPools.newBoundedThreadPool(2, 100,
+            "blog-prefetch-", new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * 根据id批量查询blog，依次查询本地缓存、Redis（一次mget）、数据库，并按照ids的顺序返回，代替order by field
+     * @param ids
+     * @return
+     */
+    private List<Blog> queryBlogsByIds(List<Long> ids) {
+        Map<Long, String> jsonMap = loadBlogJsons(ids);
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            String json = jsonMap.get(id);
+            if(json != null){
+                blogs.add(JSONUtil.toBean(json, Blog.class));
+            }
+        }
+        return blogs;
+    }
+
+    /**
+     * 批量加载blog的json，并写入本地缓存
+     * @param ids
+     * @return 存在的blog的id -> json
+     */
+    private Map<Long, String> loadBlogJsons(List<Long> ids) {
+        Map<Long, String> jsonMap = new HashMap<>(ids.size());
+        // 1.查询本地缓存
+        List<Long> localMisses = new ArrayList<>();
+        for (Long id : ids) {
+            String json = BLOG_LOCAL_CACHE.get(id);
+            if(json != null){
+                jsonMap.put(id, json);
+            }else{
+                localMisses.add(id);
+            }
+        }
+        if(localMisses.isEmpty()){
+            return jsonMap;
+        }
+        // 2.查询Redis
+        List<String> keys = localMisses.stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> redisMisses = new ArrayList<>();
+        for (int i = 0; i < localMisses.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if(StrUtil.isNotBlank(json)){
+                jsonMap.put(localMisses.get(i), json);
+                BLOG_LOCAL_CACHE.put(localMisses.get(i), json);
+            }else if(json == null){
+                redisMisses.add(localMisses.get(i));
+            }
+        }
+        if(redisMisses.isEmpty()){
+            return jsonMap;
+        }
+        // 3.查询数据库，回写Redis，不存在的blog写入空值
+        Map<Long, String> loaded = listByIds(redisMisses).stream()
+                .collect(Collectors.toMap(Blog::getId, JSONUtil::toJsonStr));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : redisMisses) {
+                String json = loaded.get(id);
+                if(json != null){
+                    conn.set(CACHE_BLOG_KEY + id, json, Expiration.from(CACHE_BLOG_TTL, TimeUnit.MINUTES),
+                            RedisStringCommands.SetOption.upsert());
+                }else{
+                    conn.set(CACHE_BLOG_KEY + id, "", Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES),
+                            RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
         });
-        return Result.ok(records);
+        loaded.forEach((id, json) -> {
+            jsonMap.put(id, json);
+            BLOG_LOCAL_CACHE.put(id, json);
+        });
+        return jsonMap;
     }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.queryUserDTOById(userId);
+        if(user == null){
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
 
+    /**
+     * 批量填充blog的作者信息，一次查询缓存代替逐条查询数据库
+     * @param blogs
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if(blogs.isEmpty()){
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> userMap = userService.queryUserDTOByIds(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, u -> u));
+        for (Blog blog : blogs) {
+            UserDTO user = userMap.get(blog.getUserId());
+            if(user != null){
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
 
     @Override
     public Result queryBlogById(Long id) {
         // 1.查询blog
-        Blog blog = getById(id);
-        if(blog == null){
+        List<Blog> blogs = queryBlogsByIds(Collections.singletonList(id));
+        if(blogs.isEmpty()){
             return Result.fail("blog不存在");
         }
+        Blog blog = blogs.get(0);
         // 2.查询blog相关用户
         queryBlogUser(blog);
-        // 3.查询blog是否被当前用户点赞了
-        isBlogLiked(blog);
+        // 3.查询blog点赞数及是否被当前用户点赞了
+        fillBlogLikeState(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
-    private void isBlogLiked(Blog blog) {
-        // 1.获取登录用户
-        UserDTO user = UserHolder.getUser();
-        if(user == null){
-            // 如果当前无用户登录，就不需要判断是否点赞
+    /**
+     * 分页查询某个用户发布的博客，点赞数、评论数同样以Redis计数器为准
+     * @param userId
+     * @param current
+     * @return
+     */
+    @Override
+    public Result queryBlogOfUser(Long userId, Integer current) {
+        // 1.根据用户查询
+        Page<Blog> page = query()
+                .eq("user_id", userId).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 2.获取当前页数据，查询点赞数及是否被当前用户点赞了
+        List<Blog> records = page.getRecords();
+        fillBlogLikeState(records);
+        return Result.ok(records);
+    }
+
+    /**
+     * 填充点赞状态：点赞数、评论数以Redis计数器为准（数据库中的liked、comments由后台任务延迟写回），以及当前用户是否点赞
+     * 所有blog的计数和点赞状态在一次pipeline中查询
+     * @param blogs
+     */
+    private void fillBlogLikeState(List<Blog> blogs) {
+        if(blogs.isEmpty()){
             return;
         }
-        Long userId = user.getId();
-        // 2.判断当前用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        UserDTO user = UserHolder.getUser();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.get(BLOG_LIKED_COUNT_KEY + blog.getId());
+                conn.get(BLOG_COMMENTS_COUNT_KEY + blog.getId());
+                // 如果当前无用户登录，就不需要判断是否点赞
+                if(user != null){
+                    conn.zScore(BLOG_LIKED_KEY + blog.getId(), user.getId().toString());
+                }
+            }
+            return null;
+        });
+        int step = user == null ? 2 : 3;
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            Object liked = results.get(i * step);
+            if(liked != null){
+                blog.setLiked(Integer.valueOf(liked.toString()));
+            }
+            Object comments = results.get(i * step + 1);
+            if(comments != null){
+                blog.setComments(Integer.valueOf(comments.toString()));
+            }
+            if(user != null){
+                blog.setIsLike(results.get(i * step + 2) != null);
+            }
+        }
     }
 
     /**
-     * 实现用户点赞功能
+     * 实现用户点赞功能，点赞/取消点赞由lua脚本原子切换
      * @param id
+     * @return 操作后的点赞状态和点赞数
      */
     @Override
-    public void likeBlog(Long id) {
+    public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 3.如果未点赞，可以点赞
-        if(score == null){
-            // 3.1数据库点赞量+1
-            boolean success = update().setSql("liked = liked+1").eq("id", id).update();
-            if(success){
-                // 3.2保存用户到Redis集合
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        }else{
-            // 4.如果已经点赞，取消点赞
-            // 4.1数据库点赞量-1
-            boolean success = update().setSql("liked = liked-1").eq("id", id).update();
-            if(success){
-                // 4.2把用户从Redis集合中删除
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
+        // 2.执行lua脚本，判断是否点赞并修改点赞集合、点赞数、热度
+        LikeResult likeResult = blogLikeCounter.toggle(id, userId);
+        if(likeResult == null){
+            return Result.fail("blog不存在");
         }
+        return Result.ok(likeResult);
+    }
+
+    @Override
+    public CompletableFuture<Result> likeBlogAsync(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        return blogLikeCounter.toggleAsync(id, userId)
+                .thenApply(likeResult -> likeResult == null ? Result.fail("blog不存在") : Result.ok(likeResult));
     }
 
     @Override
@@ -140,12 +382,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 2.解析用户id
         List<Long> userIds = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 3.根据用户id查询用户 where id in (5,1) order by field (id, 5,1)
-        String idStr = StrUtil.join(",", userIds);
-        List<UserDTO> userDTOS = userService.query().in("id", userIds).last("order by field (id, "+idStr+")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3.根据用户id批量查询用户缓存，结果与userIds顺序一致
+        List<UserDTO> userDTOS = userService.queryUserDTOByIds(userIds);
         return Result.ok(userDTOS);
     }
 
@@ -159,65 +397,101 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败");
         }
-        // 如果笔记发布成功，将笔记推送给关注登录用户的人
-        // 查询所有粉丝
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        follows.forEach(follow -> {
-            String key = "feed:" + follow.getUserId();  // 某用户的接收推文inbox
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        });
+        // 加入热门排行榜
+        blogHotRanker.add(blog);
+        // 如果笔记发布成功，写入发件箱，并异步推送给粉丝（大V只写发件箱）
+        feedService.pushBlog(blog);
         // 返回id
         return Result.ok(blog.getId());
     }
 
+    /**
+     * 滚动分页查询关注推送的异步版本，合并收件箱和大V发件箱需要多次依次调用Redis并查询博客，
+     * 整体放到阻塞线程池执行，不占用Tomcat线程
+     */
     @Override
-    public Result queryBlogOfFollow(Long max, Integer offset) {
+    public CompletableFuture<Result> queryBlogOfFollowAsync(Long max, Integer offset, String cursor, Integer size) {
+        return asyncRedis.supplyBlocking(() -> blogService.queryBlogOfFollow(max, offset, cursor, size));
+    }
+
+    /**
+     * 滚动分页查询关注推送
+     * @param max 上次查询的最小时间戳（兼容旧版参数，有cursor时忽略）
+     * @param offset 与最小时间戳相同的博客数量（兼容旧版参数，有cursor时忽略）
+     * @param cursor 上一页返回的nextCursor
+     * @param size 每页数量
+     * @return
+     */
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset, String cursor, Integer size) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱  zreverangebyscore key Max Min whithscores limit 2 3
-        String key = "feed:" + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet().
-                reverseRangeByScoreWithScores(key, 0, max, offset, 2); // 每页2个blog
+        int count = Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE));
+        // 2.解析游标
+        Long lastId = null;
+        ScrollCursor scrollCursor = ScrollCursor.decode(cursor);
+        if(scrollCursor != null){
+            max = scrollCursor.getScore();
+            offset = scrollCursor.getOffset();
+            lastId = scrollCursor.getLastId();
+        }else if(max == null){
+            max = System.currentTimeMillis();
+        }
+        // 3.查询收件箱，并合并关注的大V发件箱
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedService.queryFeed(userId, max, offset, lastId, count);
         // 非空判断
         if(typedTuples == null || typedTuples.isEmpty()){
             return Result.ok();
         }
-        // 3.解析数据：blogId, score(时间戳), offset
+        // 4.解析数据：blogId, score(时间戳), offset
         List<Long> ids = new ArrayList<>(typedTuples.size());
         long minTime = 0; // 最小时间戳
-        int offsetCount = 1; // 最小时间戳博客的数量
+        int offsetCount = 0; // 最小时间戳博客的数量
         for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
             ids.add(Long.valueOf(tuple.getValue()));
             long blogTime = tuple.getScore().longValue(); // 该博客的时间戳
-            if(blogTime == minTime){
+            if(offsetCount > 0 && blogTime == minTime){
                 offsetCount++;
             }else{
                 minTime = blogTime;
                 offsetCount = 1;
             }
         }
-        // 4.根据id查询blog，返回id是有序的，使用listById()查询是无序的
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("order by field (id, " + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            // 4.1查询blog相关用户
-            queryBlogUser(blog);
-            // 4.2查询blog是否被当前用户点赞了
-            isBlogLiked(blog);
-        }
-        // blogs.forEach(blog -> {
-        //     // 4.1查询blog相关用户
-        //     queryBlogUser(blog);
-        //     // 4.2查询blog是否被当前用户点赞了
-        //     isBlogLiked(blog);
-        // });
-        // 5.封装并返回
+        // 整页时间戳都与上次最小时间戳相同，需要累加上次的偏移量
+        if(minTime == max){
+            offsetCount += offset;
+        }
+        long nextLastId = ids.get(ids.size() - 1);
+        // 5.根据id批量查询blog缓存，结果与ids顺序一致
+        List<Blog> blogs = queryBlogsByIds(ids);
+        // 5.1批量查询blog相关用户
+        queryBlogUsers(blogs);
+        // 5.2查询blog点赞数及是否被当前用户点赞了
+        fillBlogLikeState(blogs);
+        // 6.异步预取下一页博客到本地缓存
+        prefetchFeed(userId, minTime, offsetCount, nextLastId, count);
+        // 7.封装并返回
         ScrollResult result = new ScrollResult();
         result.setList(blogs);
         result.setOffset(offsetCount);
         result.setMinTime(minTime);
+        result.setNextCursor(new ScrollCursor(minTime, offsetCount, nextLastId).encode());
         return Result.ok(result);
     }
 
+    private void prefetchFeed(Long userId, long max, int offset, long lastId, int count) {
+        BLOG_PREFETCH_EXECUTOR.submit(() -> {
+            try {
+                List<Long> ids = feedService.queryFeed(userId, max, offset, lastId, count).stream()
+                        .map(tuple -> Long.valueOf(tuple.getValue()))
+                        .collect(Collectors.toList());
+                if(!ids.isEmpty()){
+                    loadBlogJsons(ids);
+                }
+            } catch (Exception e) {
+                log.warn("预取关注推送失败，userId：{}", userId, e);
+            }
+        });
+    }
+
 }
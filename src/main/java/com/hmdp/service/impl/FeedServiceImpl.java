@@ -0,0 +1,453 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFeedService;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.ThreadPools;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  关注推送服务实现类
+ *  1.每篇博客都写入作者的发件箱 feed:outbox:authorId
+ *  2.粉丝数小于阈值的普通作者，异步分批把博客推送到粉丝收件箱 feed:userId
+ *  3.粉丝数达到阈值的大V作者只写发件箱，记入feed:bigv，粉丝读取时合并关注的大V发件箱
+ *  4.收件箱、发件箱只保留最新的若干条；长期未活跃的粉丝不推送，记入feed:stale，
+ *    下次读取时从关注作者的发件箱重建收件箱
+ *  5.推送任务排队已满时不推送，同样把粉丝记入feed:stale
+ * </p>
+ */
+@Slf4j
+@Service
+public class FeedServiceImpl implements IFeedService {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+
+    @Value("${hmdp.feed.big-v-threshold:5000}")
+    private long bigVThreshold;
+    @Value("${hmdp.feed.push-batch-size:1000}")
+    private int pushBatchSize;
+    @Value("${hmdp.feed.inbox-max-size:500}")
+    private int inboxMaxSize;
+    @Value("${hmdp.feed.outbox-max-size:1000}")
+    private int outboxMaxSize;
+    @Value("${hmdp.feed.dormant-days:30}")
+    private long dormantDays;
+    @Value("${hmdp.feed.push-queue-size:1000}")
+    private int pushQueueSize;
+
+    private static final int REPORT_BATCH_SIZE = 500;
+
+    // 推送线程池，排队的任务超过pushQueueSize时拒绝
+    private ExecutorService feedPushExecutor;
+
+    // 推送延迟统计：博客发布到推送完成的时间（ms）
+    private final AtomicLong lastPushLag = new AtomicLong();
+    private final AtomicLong maxPushLag = new AtomicLong();
+    private final AtomicLong pendingPushTasks = new AtomicLong();
+
+    // 开始记录活跃时间的时间戳，在此之后dormantDays内，user:active中没有记录的用户不能认为是不活跃
+    private volatile long activeSince;
+
+    @PostConstruct
+    private void initActiveSince() {
+        // 第一次部署时user:active为空，记录开始时间，集群中只有第一个节点能写入
+        String now = String.valueOf(System.currentTimeMillis());
+        stringRedisTemplate.opsForValue().setIfAbsent(USER_ACTIVE_SINCE_KEY, now);
+        String since = stringRedisTemplate.opsForValue().get(USER_ACTIVE_SINCE_KEY);
+        activeSince = Long.parseLong(since == null ? now : since);
+    }
+
+    @PostConstruct
+    private void initPushExecutor() {
+        feedPushExecutor = ThreadPools.newBoundedThreadPool(4, pushQueueSize, "feed-push-",
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        feedPushExecutor.shutdown();
+    }
+
+    @PostConstruct
+    private void registerMetrics() {
+        // 推送延迟和积压的任务数，通过/metrics查看
+        Metrics.gauge("feed.push.lag.last", lastPushLag::get);
+        Metrics.gauge("feed.push.lag.max", maxPushLag::get);
+        Metrics.gauge("feed.push.pending", pendingPushTasks::get);
+    }
+
+    @Override
+    public void pushBlog(Blog blog) {
+        Long authorId = blog.getUserId();
+        String blogId = blog.getId().toString();
+        long timestamp = System.currentTimeMillis();
+        // 1.写入作者发件箱，只保留最新的outboxMaxSize条
+        String outboxKey = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.opsForZSet().add(outboxKey, blogId, timestamp);
+        stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -outboxMaxSize - 1);
+        // 2.判断是否是大V
+        long fansCount = followService.queryFansCount(authorId);
+        if (fansCount >= bigVThreshold) {
+            // 2.1大V只写发件箱，粉丝读取时拉取。大V标记不删除，避免粉丝数回落后读不到以前只在发件箱中的博客
+            stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, authorId.toString());
+            return;
+        }
+        if (fansCount == 0) {
+            return;
+        }
+        // 3.普通作者异步推送给粉丝
+        pendingPushTasks.incrementAndGet();
+        try {
+            submitPush(authorId, blogId, timestamp);
+        } catch (RejectedExecutionException e) {
+            // 3.1排队已满，不推送，粉丝下次读取时从发件箱重建收件箱
+            pendingPushTasks.decrementAndGet();
+            Metrics.counter("feed.push.rejected", "fans").increment();
+            log.warn("推送任务排队已满，粉丝改为读取时重建收件箱，blogId：{}", blogId);
+            markFansStale(authorId);
+        }
+    }
+
+    private void submitPush(Long authorId, String blogId, long timestamp) {
+        feedPushExecutor.submit(() -> {
+            try {
+                pushToFans(authorId, blogId, timestamp);
+            } catch (Exception e) {
+                log.error("推送博客失败，blogId：{}", blogId, e);
+            } finally {
+                pendingPushTasks.decrementAndGet();
+                long lag = System.currentTimeMillis() - timestamp;
+                lastPushLag.set(lag);
+                maxPushLag.accumulateAndGet(lag, Math::max);
+                Metrics.timer("feed.push.lag", "fans").record(TimeUnit.MILLISECONDS.toNanos(lag));
+                log.debug("博客{}推送完成，推送延迟{}ms", blogId, lag);
+            }
+        });
+    }
+
+    /**
+     * 把作者的粉丝全部记入feed:stale，粉丝集合已加载时直接读取，否则按id分批查询数据库
+     * 只有普通作者会调用，粉丝数小于bigVThreshold
+     */
+    private void markFansStale(Long authorId) {
+        Set<String> fans = stringRedisTemplate.opsForSet().members(FANS_KEY + authorId);
+        if (fans != null && fans.remove(FOLLOW_SET_PLACEHOLDER)) {
+            if (!fans.isEmpty()) {
+                stringRedisTemplate.opsForSet().add(FEED_STALE_KEY, fans.toArray(new String[0]));
+            }
+            return;
+        }
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + pushBatchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            String[] fanIds = follows.stream().map(follow -> follow.getUserId().toString()).toArray(String[]::new);
+            stringRedisTemplate.opsForSet().add(FEED_STALE_KEY, fanIds);
+            if (follows.size() < pushBatchSize) {
+                return;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 分批读取粉丝，每批使用pipeline写入活跃粉丝的收件箱
+     * 粉丝集合fans:authorId在推送线程中加载，加载失败时按id分批查询数据库
+     */
+    private void pushToFans(Long authorId, String blogId, long timestamp) {
+        if (followService.ensureFansLoaded(authorId)) {
+            ScanOptions options = ScanOptions.scanOptions().count(pushBatchSize).build();
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(FANS_KEY + authorId, options)) {
+                List<String> batch = new ArrayList<>(pushBatchSize);
+                while (cursor.hasNext()) {
+                    String fanId = cursor.next();
+                    if (!FOLLOW_SET_PLACEHOLDER.equals(fanId)) {
+                        batch.add(fanId);
+                    }
+                    if (batch.size() == pushBatchSize || !cursor.hasNext()) {
+                        pushBatch(batch, blogId, timestamp);
+                        batch.clear();
+                    }
+                }
+            }
+            return;
+        }
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + pushBatchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            pushBatch(follows.stream().map(follow -> follow.getUserId().toString()).collect(Collectors.toList()),
+                    blogId, timestamp);
+            if (follows.size() < pushBatchSize) {
+                return;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
+
+    private void pushBatch(List<String> fanIds, String blogId, long timestamp) {
+        if (fanIds.isEmpty()) {
+            return;
+        }
+        // 1.批量查询粉丝的最近活跃时间
+        List<Object> activeTimes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String fanId : fanIds) {
+                conn.zScore(USER_ACTIVE_KEY, fanId);
+            }
+            return null;
+        });
+        // 2.活跃粉丝写入收件箱并截断，不活跃的粉丝标记为待重建
+        long dormantBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(dormantDays);
+        // 开始记录活跃时间还不到dormantDays，没有记录的粉丝可能只是还没有登录过，仍然推送
+        boolean trustMissing = activeSince <= dormantBefore;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < fanIds.size(); i++) {
+                String fanId = fanIds.get(i);
+                Double activeTime = (Double) activeTimes.get(i);
+                boolean dormant = activeTime == null ? trustMissing : activeTime < dormantBefore;
+                if (dormant) {
+                    conn.sAdd(FEED_STALE_KEY, fanId);
+                    continue;
+                }
+                String inboxKey = FEED_KEY + fanId;
+                conn.zAdd(inboxKey, timestamp, blogId);
+                conn.zRemRange(inboxKey, 0, -inboxMaxSize - 1);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 从关注作者的发件箱重建收件箱，用于推送时被跳过的不活跃用户
+     * @param userId
+     */
+    private void rebuildInbox(Long userId) {
+        followService.ensureFollowsLoaded(userId);
+        Set<String> followUserIds = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        if (followUserIds == null) {
+            return;
+        }
+        followUserIds.remove(FOLLOW_SET_PLACEHOLDER);
+        if (followUserIds.isEmpty()) {
+            return;
+        }
+        List<String> authorIds = new ArrayList<>(followUserIds);
+        // 1.批量读取每个作者发件箱中最新的inboxMaxSize条
+        List<Object> outboxes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String authorId : authorIds) {
+                conn.zRevRangeWithScores(FEED_OUTBOX_KEY + authorId, 0, inboxMaxSize - 1);
+            }
+            return null;
+        });
+        // 2.写入收件箱并截断
+        String inboxKey = FEED_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Object outbox : outboxes) {
+                @SuppressWarnings("unchecked")
+                Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) outbox;
+                if (tuples == null) {
+                    continue;
+                }
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    conn.zAdd(inboxKey, tuple.getScore(), tuple.getValue());
+                }
+            }
+            conn.zRemRange(inboxKey, 0, -inboxMaxSize - 1);
+            return null;
+        });
+        log.debug("重建用户{}的收件箱，关注作者{}个", userId, authorIds.size());
+    }
+
+    /**
+     * 查询关注推送，合并收件箱和关注的大V发件箱
+     * @param userId 当前用户
+     * @param max 上次查询的最小时间戳
+     * @param offset 与最小时间戳相同的、已经返回过的博客数量
+     * @param lastId 上一页最后一篇博客的id，不为null时按(时间戳, id)过滤已返回的博客，不再按offset跳过
+     * @param count 每页数量
+     * @return 按时间戳倒序的blogId和时间戳
+     */
+    @Override
+    public List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, Long max, Integer offset, Long lastId, int count) {
+        // 1.推送时被跳过的不活跃用户，先重建收件箱（SREM成功说明由当前请求负责重建）
+        Long stale = stringRedisTemplate.opsForSet().remove(FEED_STALE_KEY, userId.toString());
+        if (stale != null && stale > 0) {
+            rebuildInbox(userId);
+        }
+        // 2.需要读取的收件箱/发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        followService.ensureFollowsLoaded(userId);
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_V_KEY);
+        if (bigVs != null) {
+            bigVs.forEach(bigV -> keys.add(FEED_OUTBOX_KEY + bigV));
+        }
+        // 3.每个来源最多取offset+count条，使用pipeline一次读取，合并后再跳过offset条
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        Map<String, ZSetOperations.TypedTuple<String>> merged = new HashMap<>();
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+            if (tuples == null) {
+                continue;
+            }
+            // 同一篇博客可能同时在收件箱和发件箱中，去重
+            tuples.forEach(tuple -> merged.putIfAbsent(tuple.getValue(), tuple));
+        }
+        List<ZSetOperations.TypedTuple<String>> list = new ArrayList<>(merged.values());
+        // 4.按时间戳倒序，时间戳相同按blogId倒序
+        list.sort(Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed()
+                .thenComparing(t -> Long.valueOf(t.getValue()), Comparator.reverseOrder()));
+        // 5.跳过已经返回过的博客
+        int skip = offset;
+        if (lastId != null) {
+            skip = 0;
+            while (skip < list.size() && list.get(skip).getScore() >= max
+                    && Long.parseLong(list.get(skip).getValue()) >= lastId) {
+                skip++;
+            }
+        }
+        if (list.size() <= skip) {
+            return Collections.emptyList();
+        }
+        return list.subList(skip, Math.min(list.size(), skip + count));
+    }
+
+    /**
+     * 统计收件箱占用：SCAN所有feed:userId，按收件箱条数分桶，统计用户数、总条数和内存占用（字节）
+     * @return 桶名 -> {users, entries, bytes}
+     */
+    @Override
+    public Map<String, Map<String, Long>> reportInboxSizes() {
+        long[] bounds = {10, 100, inboxMaxSize};
+        String[] names = {"0-9", "10-99", "100-" + (inboxMaxSize - 1), inboxMaxSize + "+"};
+        long[][] stats = new long[names.length][3];
+        ScanOptions options = ScanOptions.scanOptions().match(FEED_KEY + "[0-9]*").count(1000).build();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                List<String> batch = new ArrayList<>(REPORT_BATCH_SIZE);
+                while (cursor.hasNext()) {
+                    batch.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (batch.size() == REPORT_BATCH_SIZE || !cursor.hasNext()) {
+                        collectInboxStats(batch, bounds, stats);
+                        batch.clear();
+                    }
+                }
+            }
+            return null;
+        });
+        Map<String, Map<String, Long>> report = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            Map<String, Long> bucket = new LinkedHashMap<>();
+            bucket.put("users", stats[i][0]);
+            bucket.put("entries", stats[i][1]);
+            bucket.put("bytes", stats[i][2]);
+            report.put(names[i], bucket);
+        }
+        return report;
+    }
+
+    private void collectInboxStats(List<String> keys, long[] bounds, long[][] stats) {
+        // 每个key查询ZCARD和MEMORY USAGE
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zCard(key);
+                conn.execute("MEMORY", "USAGE", key);
+            }
+            return null;
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            Object size = results.get(2 * i);
+            Object bytes = results.get(2 * i + 1);
+            long entries = size == null ? 0 : ((Number) size).longValue();
+            int bucket = 0;
+            while (bucket < bounds.length && entries >= bounds[bucket]) {
+                bucket++;
+            }
+            stats[bucket][0]++;
+            stats[bucket][1] += entries;
+            stats[bucket][2] += bytes instanceof Number ? ((Number) bytes).longValue() : 0;
+        }
+    }
+
+    /**
+     * 删除user:active中超过dormantDays未活跃的用户，这些用户按不活跃处理，不需要保留记录
+     * @return 删除的用户数
+     */
+    @Override
+    public long trimActiveUsers() {
+        long dormantBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(dormantDays);
+        Long removed = stringRedisTemplate.opsForZSet().removeRangeByScore(USER_ACTIVE_KEY, 0, dormantBefore);
+        return removed == null ? 0 : removed;
+    }
+
+    @Override
+    public long getLastPushLag() {
+        return lastPushLag.get();
+    }
+
+    @Override
+    public long getMaxPushLag() {
+        return maxPushLag.get();
+    }
+
+    @Override
+    public long getPendingPushTasks() {
+        return pendingPushTasks.get();
+    }
+}
@@ -1,9 +1,7 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.injector.methods.DeleteById;
-import com.baomidou.mybatisplus.core.injector.methods.SelectById;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
@@ -11,32 +9,74 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowSuggester;
 import com.hmdp.utils.UserHolder;
-import org.aspectj.weaver.ast.Var;
-import org.springframework.beans.factory.annotation.Autowired;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
+ *  关注关系以Redis为准：follows:userId（关注集合）、fans:userId（粉丝集合）、follow:count:userId（关注数/粉丝数），
+ *  集合和计数不存在时从数据库懒加载；集合包含占位成员才算加载完成，加载后FOLLOW_SET_TTL过期，
+ *  粉丝集合只在推送博客时加载，大V不推送，不会加载
  * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    // 懒加载集合时每批查询的数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final String COUNT_FOLLOWS = "follows";
+    private static final String COUNT_FANS = "fans";
+    // 计算共同关注时每批扫描的数量
+    private static final int COMMON_SCAN_BATCH_SIZE = 500;
+
+    @Value("${hmdp.follow.common-max-scan:10000}")
+    private int commonMaxScan;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private IUserService userService;
+
+    @Resource
+    private FollowSuggester followSuggester;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private static final DefaultRedisScript<Long> FOLLOW_SET_UPDATE_SCRIPT;
+
+    static {
+        FOLLOW_SET_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SET_UPDATE_SCRIPT.setLocation(new ClassPathResource("follow_set_update.lua"));
+        FOLLOW_SET_UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
     /**
      * 关注或者取关用户
      * @param followUserId
@@ -47,23 +87,56 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId() ;
-        String key = "follows:" + userId;  // redis中某用户（userId）的关注集合
-        // 2.判断是关注还是取关
+        String key = FOLLOWS_KEY + userId;  // redis中某用户（userId）的关注集合
+        String fansKey = FANS_KEY + followUserId;  // redis中被关注用户的粉丝集合
+        // 2.修改数据库之前，确保计数已经加载，避免加载时读到本次修改后又重复累加；关注集合没有加载成功时查询数据库
+        ensureCount(userId, COUNT_FOLLOWS);
+        ensureCount(followUserId, COUNT_FANS);
+        boolean following = ensureFollowsLoaded(userId)
+                ? Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()))
+                : query().eq("user_id", userId).eq("follow_user_id", followUserId).count() > 0;
+        // 3.判断是关注还是取关
         if(isFollow){
+            if(following){
+                return Result.ok();
+            }
             Follow follow = new Follow();
             follow.setUserId(userId);
             follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
+            boolean isSuccess;
+            try {
+                isSuccess = save(follow);
+            } catch (DuplicateKeyException e) {
+                // 同一用户并发关注，另一个请求已经插入并负责修改计数，这里只保证集合中有这条关注
+                updateSet(key, followUserId.toString(), true);
+                updateSet(fansKey, userId.toString(), true);
+                return Result.ok();
+            }
             if(isSuccess){
                 // 把关注用户的id，放入redis的set集合 sadd userId followerUserId
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+                updateSet(key, followUserId.toString(), true);
+                updateSet(fansKey, userId.toString(), true);
+                stringRedisTemplate.opsForHash().increment(FOLLOW_COUNT_KEY + userId, COUNT_FOLLOWS, 1);
+                stringRedisTemplate.opsForHash().increment(FOLLOW_COUNT_KEY + followUserId, COUNT_FANS, 1);
+                if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(FOLLOWS_HLL_KEY + userId))){
+                    stringRedisTemplate.opsForHyperLogLog().add(FOLLOWS_HLL_KEY + userId, followUserId.toString());
+                }
+                followSuggester.onFollow(userId, followUserId);
             }
         }else{
-            // 3.取关，删除数据 delete from tb_follow where user_id=? and follow_user_id = ?
+            if(!following){
+                return Result.ok();
+            }
+            // 4.取关，删除数据 delete from tb_follow where user_id=? and follow_user_id = ?
             boolean isSuccess = remove(new QueryWrapper<Follow>().
                     eq("follow_user_id", followUserId).eq("user_id", userId));
             if(isSuccess){
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                updateSet(key, followUserId.toString(), false);
+                updateSet(fansKey, userId.toString(), false);
+                stringRedisTemplate.opsForHash().increment(FOLLOW_COUNT_KEY + userId, COUNT_FOLLOWS, -1);
+                stringRedisTemplate.opsForHash().increment(FOLLOW_COUNT_KEY + followUserId, COUNT_FANS, -1);
+                stringRedisTemplate.delete(FOLLOWS_HLL_KEY + userId);
+                followSuggester.onUnfollow(userId, followUserId);
             }
         }
         return Result.ok();
@@ -76,33 +149,361 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
      */
     @Override
     public Result isFollow(Long followUserId) {
-        // 查询是否关注 select count(*) from tb_follow where user_id=? and follow_user_id = ?
+        // 查询是否关注 sismember follows:userId followUserId
         Long userId = UserHolder.getUser().getId();
-        Integer count = query().eq("follow_user_id", followUserId).eq("user_id", userId).count();
-        return Result.ok(count>0);
+        if(!ensureFollowsLoaded(userId)){
+            return Result.ok(query().eq("user_id", userId).eq("follow_user_id", followUserId).count() > 0);
+        }
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(isMember));
     }
 
     /**
-     * 当前用户和目标用户共同关注对象
-     * @param id 目标用户id
+     * 批量查看当前登录用户是否关注对方，用于列表页 smismember follows:userId id1 id2 ...
+     * @param followUserIds
+     * @return followUserId -> 是否关注
+     */
+    @Override
+    public Result isFollowBatch(List<Long> followUserIds) {
+        if(followUserIds == null || followUserIds.isEmpty()){
+            return Result.ok(Collections.emptyMap());
+        }
+        Long userId = UserHolder.getUser().getId();
+        Map<Long, Boolean> result = new LinkedHashMap<>(followUserIds.size());
+        if(!ensureFollowsLoaded(userId)){
+            // 关注集合没有加载成功，查询数据库
+            Set<Long> followed = query().select("follow_user_id").eq("user_id", userId).in("follow_user_id", followUserIds)
+                    .list().stream().map(Follow::getFollowUserId).collect(Collectors.toSet());
+            followUserIds.forEach(followUserId -> result.put(followUserId, followed.contains(followUserId)));
+            return Result.ok(result);
+        }
+        Object[] members = followUserIds.stream().map(String::valueOf).toArray();
+        Map<Object, Boolean> isMember = stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, members);
+        for (Long followUserId : followUserIds) {
+            result.put(followUserId, isMember != null && Boolean.TRUE.equals(isMember.get(followUserId.toString())));
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 查询用户的关注数和粉丝数
+     * @param userId
      * @return
      */
     @Override
-    public Result followCommons(Long id) {
+    public Result queryFollowCount(Long userId) {
+        Map<String, Long> result = new HashMap<>(2);
+        result.put(COUNT_FOLLOWS, ensureCount(userId, COUNT_FOLLOWS));
+        result.put(COUNT_FANS, ensureCount(userId, COUNT_FANS));
+        return Result.ok(result);
+    }
+
+    @Override
+    public long queryFansCount(Long userId) {
+        return ensureCount(userId, COUNT_FANS);
+    }
+
+    /**
+     * 查询当前用户可能认识的人，只读取预先计算的推荐列表
+     * @param count 返回数量
+     * @return 推荐列表不存在时返回空列表，并交给FollowSuggestJob计算
+     */
+    @Override
+    public Result querySuggest(Integer count) {
         Long userId = UserHolder.getUser().getId();
-        String key1 = "follows:" + userId;
-        String key2 = "follows:" + id;
-        // 共同关注的id集合
-        List<Long> ids = stringRedisTemplate.opsForSet().intersect(key1, key2)
-                .stream()
+        String key = FOLLOW_SUGGEST_KEY + userId;
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, 0, count - 1);
+        if(members == null || members.isEmpty()){
+            followSuggester.request(userId);
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = members.stream()
+                .filter(member -> !FOLLOW_SET_PLACEHOLDER.equals(member))
                 .map(Long::valueOf)
                 .collect(Collectors.toList());
+        return Result.ok(userService.queryUserDTOByIds(ids));
+    }
 
-        List<UserDTO> userDTOS = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+    /**
+     * 当前用户和目标用户共同关注对象，分页返回
+     * 从较小的关注集合SSCAN，批量SMISMEMBER较大的集合，最多扫描commonMaxScan个元素，结果短暂缓存，后续分页直接读取缓存
+     * @param id 目标用户id
+     * @param offset 偏移量
+     * @param size 每页数量
+     * @return 当前页的用户，total为共同关注总数（超过扫描上限时为HyperLogLog估算值）
+     */
+    @Override
+    public Result followCommons(Long id, Integer offset, Integer size) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.共同关注是对称的，两个用户共用一个缓存
+        String commonKey = FOLLOW_COMMON_KEY + Math.min(userId, id) + ":" + Math.max(userId, id);
+        String totalKey = commonKey + ":total";
+        String total = stringRedisTemplate.opsForValue().get(totalKey);
+        if(total == null){
+            total = String.valueOf(computeCommons(userId, id, commonKey, totalKey));
+        }
+        // 2.读取当前页  lrange key offset offset+size-1
+        List<String> members = stringRedisTemplate.opsForList().range(commonKey, offset, offset + size - 1);
+        List<Long> ids = members == null ? Collections.emptyList() : members.stream()
+                .filter(member -> !FOLLOW_SET_PLACEHOLDER.equals(member))
+                .map(Long::valueOf)
                 .collect(Collectors.toList());
+        List<UserDTO> userDTOS = userService.queryUserDTOByIds(ids);
+        return Result.ok(userDTOS, Long.valueOf(total));
+    }
+
+    /**
+     * 计算共同关注并写入缓存
+     * @return 共同关注总数
+     */
+    private long computeCommons(Long userId, Long id, String commonKey, String totalKey) {
+        if(!ensureFollowsLoaded(userId) || !ensureFollowsLoaded(id)){
+            // 关注集合没有加载成功，不缓存结果
+            return 0;
+        }
+        String key1 = FOLLOWS_KEY + userId;
+        String key2 = FOLLOWS_KEY + id;
+        Long size1 = stringRedisTemplate.opsForSet().size(key1);
+        Long size2 = stringRedisTemplate.opsForSet().size(key2);
+        // 1.从较小的集合开始扫描
+        boolean firstSmaller = size1 == null || size2 == null || size1 <= size2;
+        String smallKey = firstSmaller ? key1 : key2;
+        String largeKey = firstSmaller ? key2 : key1;
+        List<String> commons = new ArrayList<>();
+        int scanned = 0;
+        boolean partial = false;
+        ScanOptions options = ScanOptions.scanOptions().count(COMMON_SCAN_BATCH_SIZE).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(smallKey, options)) {
+            List<String> batch = new ArrayList<>(COMMON_SCAN_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                if(scanned >= commonMaxScan){
+                    partial = true;
+                    break;
+                }
+                String member = cursor.next();
+                scanned++;
+                if(!FOLLOW_SET_PLACEHOLDER.equals(member)){
+                    batch.add(member);
+                }
+                if(batch.size() == COMMON_SCAN_BATCH_SIZE){
+                    collectCommons(largeKey, batch, commons);
+                    batch.clear();
+                }
+            }
+            collectCommons(largeKey, batch, commons);
+        }
+        // 2.超过扫描上限，总数使用HyperLogLog估算
+        long total = commons.size();
+        if(partial){
+            total = Math.max(total, approxCommonCount(userId, id, size1, size2));
+        }
+        // 3.写入缓存，空结果写入占位成员
+        if(commons.isEmpty()){
+            commons.add(FOLLOW_SET_PLACEHOLDER);
+        }
+        // 先写入临时key再RENAME，读取方不会看到空的或者只写了一部分的列表
+        String tmpKey = commonKey + ":tmp:" + UUID.randomUUID().toString(true);
+        stringRedisTemplate.opsForList().rightPushAll(tmpKey, commons);
+        stringRedisTemplate.expire(tmpKey, FOLLOW_COMMON_TTL, TimeUnit.SECONDS);
+        stringRedisTemplate.rename(tmpKey, commonKey);
+        stringRedisTemplate.opsForValue().set(totalKey, String.valueOf(total), FOLLOW_COMMON_TTL, TimeUnit.SECONDS);
+        return total;
+    }
+
+    private void collectCommons(String largeKey, List<String> batch, List<String> commons) {
+        if(batch.isEmpty()){
+            return;
+        }
+        Map<Object, Boolean> isMember = stringRedisTemplate.opsForSet().isMember(largeKey, batch.toArray());
+        if(isMember == null){
+            return;
+        }
+        for (String member : batch) {
+            if(Boolean.TRUE.equals(isMember.get(member))){
+                commons.add(member);
+            }
+        }
+    }
+
+    /**
+     * 估算共同关注数 |A∩B| = |A| + |B| - |A∪B|，|A∪B|由两个关注集合的HyperLogLog合并计数得到
+     */
+    private long approxCommonCount(Long userId, Long id, Long size1, Long size2) {
+        ensureFollowsHll(userId);
+        ensureFollowsHll(id);
+        Long union = stringRedisTemplate.opsForHyperLogLog().size(FOLLOWS_HLL_KEY + userId, FOLLOWS_HLL_KEY + id);
+        long count = followCount(FOLLOWS_KEY + userId, size1) + followCount(FOLLOWS_KEY + id, size2)
+                - (union == null ? 0 : union);
+        return Math.max(count, 0);
+    }
+
+    /**
+     * 关注集合的真实关注数，懒加载的集合包含一个占位成员，此前写入的集合没有，需要判断
+     */
+    private long followCount(String key, Long size) {
+        if(size == null || size == 0){
+            return 0;
+        }
+        boolean hasPlaceholder = Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, FOLLOW_SET_PLACEHOLDER));
+        return hasPlaceholder ? size - 1 : size;
+    }
+
+    /**
+     * HyperLogLog不支持删除，取关时直接删除，下次使用时从关注集合重新构建
+     */
+    private void ensureFollowsHll(Long userId) {
+        String hllKey = FOLLOWS_HLL_KEY + userId;
+        if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(hllKey))){
+            return;
+        }
+        ScanOptions options = ScanOptions.scanOptions().count(COMMON_SCAN_BATCH_SIZE).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(FOLLOWS_KEY + userId, options)) {
+            List<String> batch = new ArrayList<>(COMMON_SCAN_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                String member = cursor.next();
+                if(!FOLLOW_SET_PLACEHOLDER.equals(member)){
+                    batch.add(member);
+                }
+                if(batch.size() == COMMON_SCAN_BATCH_SIZE || !cursor.hasNext()){
+                    if(!batch.isEmpty()){
+                        stringRedisTemplate.opsForHyperLogLog().add(hllKey, batch.toArray(new String[0]));
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * 确保用户的关注集合follows:userId已经从数据库加载
+     * @param userId
+     * @return 是否已加载，等待其他线程加载超时返回false，调用方应查询数据库
+     */
+    @Override
+    public boolean ensureFollowsLoaded(Long userId) {
+        return ensureSetLoaded(FOLLOWS_KEY + userId, "user_id", userId, "follow_user_id");
+    }
+
+    /**
+     * 确保用户的粉丝集合fans:userId已经从数据库加载，只在推送线程中调用
+     * @param userId
+     * @return 是否已加载
+     */
+    @Override
+    public boolean ensureFansLoaded(Long userId) {
+        return ensureSetLoaded(FANS_KEY + userId, "follow_user_id", userId, "user_id");
+    }
 
-        return Result.ok(userDTOS);
+    private boolean isSetLoaded(String key) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, FOLLOW_SET_PLACEHOLDER));
+    }
+
+    /**
+     * 集合没有占位成员时，加锁后按id分批查询tb_follow写入临时key，写入占位成员后改名
+     */
+    private boolean ensureSetLoaded(String key, String column, Long userId, String memberColumn) {
+        if(isSetLoaded(key)){
+            return true;
+        }
+        // 1.获取锁，等待超时返回未加载
+        RLock lock = redissonClient.getLock(LOCK_FOLLOW_SET_KEY + key);
+        try {
+            if(!lock.tryLock(LOCK_FOLLOW_SET_WAIT, TimeUnit.SECONDS)){
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            // 2.等锁期间其他线程已经加载完成
+            if(isSetLoaded(key)){
+                return true;
+            }
+            // 3.写入临时key，改名后生效；加载期间的关注、取关由updateSet等锁释放后补上
+            String tmpKey = key + ":tmp:" + UUID.randomUUID().toString(true);
+            long lastId = 0;
+            while (true) {
+                List<Follow> follows = query()
+                        .select("id", memberColumn)
+                        .eq(column, userId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + LOAD_BATCH_SIZE)
+                        .list();
+                if(follows.isEmpty()){
+                    break;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Follow follow : follows) {
+                        Long member = "user_id".equals(memberColumn) ? follow.getUserId() : follow.getFollowUserId();
+                        conn.sAdd(tmpKey, member.toString());
+                    }
+                    // 临时key加载中断时也会过期
+                    conn.expire(tmpKey, TimeUnit.MINUTES.toSeconds(FOLLOW_SET_TTL));
+                    return null;
+                });
+                if(follows.size() < LOAD_BATCH_SIZE){
+                    break;
+                }
+                lastId = follows.get(follows.size() - 1).getId();
+            }
+            stringRedisTemplate.opsForSet().add(tmpKey, FOLLOW_SET_PLACEHOLDER);
+            stringRedisTemplate.expire(tmpKey, FOLLOW_SET_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.rename(tmpKey, key);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 数据库修改后同步到已加载的集合，集合未加载时不写入
+     * 集合正在加载时，加载线程可能已经读过本次修改之前的数据，等加载完成后再写一次
+     */
+    private void updateSet(String key, String member, boolean add) {
+        List<String> keys = Collections.singletonList(key);
+        String flag = add ? "1" : "0";
+        Long updated = stringRedisTemplate.execute(FOLLOW_SET_UPDATE_SCRIPT, keys, member, FOLLOW_SET_PLACEHOLDER, flag);
+        if(updated != null && updated == 1){
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_FOLLOW_SET_KEY + key);
+        if(!lock.isLocked()){
+            // 没有在加载，或者在上一次写入和检查锁之间刚好加载完成
+            stringRedisTemplate.execute(FOLLOW_SET_UPDATE_SCRIPT, keys, member, FOLLOW_SET_PLACEHOLDER, flag);
+            return;
+        }
+        try {
+            if(!lock.tryLock(LOCK_FOLLOW_SET_WAIT, TimeUnit.SECONDS)){
+                // 集合最多FOLLOW_SET_TTL后过期重新加载
+                log.warn("等待集合{}加载超时，本次修改没有写入集合", key);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(FOLLOW_SET_UPDATE_SCRIPT, keys, member, FOLLOW_SET_PLACEHOLDER, flag);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查询关注数/粉丝数，计数不存在时从数据库初始化
+     */
+    private long ensureCount(Long userId, String field) {
+        String key = FOLLOW_COUNT_KEY + userId;
+        Object value = stringRedisTemplate.opsForHash().get(key, field);
+        if(value != null){
+            return Long.parseLong(value.toString());
+        }
+        String column = COUNT_FOLLOWS.equals(field) ? "user_id" : "follow_user_id";
+        long count = query().eq(column, userId).count();
+        stringRedisTemplate.opsForHash().putIfAbsent(key, field, String.valueOf(count));
+        return count;
     }
 }
@@ -1,11 +1,29 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +32,191 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    private static final int PRELOAD_BATCH_SIZE = 1000;
+    private static final String STATE = "state";
+    private static final String STATE_LOADED = "loaded";
+    private static final String STATE_FINISHED = "finished";
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 提前多久预热秒杀券（ms）
+    @Value("${hmdp.seckill.preload-ahead:600000}")
+    private long preloadAhead;
+    // 秒杀结束多久后输出统计，等待队列中的订单写入数据库（ms）
+    @Value("${hmdp.seckill.finish-delay:60000}")
+    private long finishDelay;
+    // 秒杀结束后Redis中的数据保留多久（ms）
+    @Value("${hmdp.seckill.key-retention:86400000}")
+    private long keyRetention;
+
+    /**
+     * 库存使用数据库中的剩余库存。Redis数据丢失后重新预热时，队列中已经抢到资格、还没写入数据库的订单
+     * 既不在数据库库存中，也不在已下单用户中，这段时间库存偏大、可能多放行：
+     * 多出的订单写入数据库时被 stock > 0 条件拦截，重复的用户被下单锁和一人一单查询拦截，
+     * Redis库存由SeckillReconciler按 总库存 - 已下单用户数 修正
+     * @param voucher
+     */
+    @Override
+    public void preload(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        String stockKey = SECKILL_STOCK_KEY + voucherId;
+        String orderKey = SECKILL_ORDER_KEY + voucherId;
+        String infoKey = SECKILL_INFO_KEY + voucherId;
+        String metricsKey = SECKILL_METRICS_KEY + voucherId;
+        // 1.加载已经下单的用户，Redis数据丢失后重新预热也能保证一人一单
+        long lastId = 0;
+        long orderCount = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + PRELOAD_BATCH_SIZE));
+            if (orders.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.opsForSet().add(orderKey, orders.stream()
+                    .map(order -> order.getUserId().toString()).toArray(String[]::new));
+            lastId = orders.get(orders.size() - 1).getId();
+            orderCount += orders.size();
+            if (orders.size() < PRELOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        // 2.先写入秒杀时间，脚本根据它判断秒杀是否开始、结束；库存存在即表示已预热，所以最后写入库存
+        Map<String, String> info = new HashMap<>(3);
+        info.put("begin", String.valueOf(toMillis(voucher.getBeginTime())));
+        info.put("end", String.valueOf(toMillis(voucher.getEndTime())));
+        info.put(STATE, STATE_LOADED);
+        stringRedisTemplate.opsForHash().putAll(infoKey, info);
+        // 总库存只在第一次预热时记录，对账时用于检查库存与订单数是否一致
+        stringRedisTemplate.opsForHash().putIfAbsent(infoKey, "total", String.valueOf(voucher.getStock() + orderCount));
+        stringRedisTemplate.opsForHash().putIfAbsent(metricsKey, "requests", "0");
+        // 3.库存使用数据库中的剩余库存，已经存在时不覆盖，避免覆盖正在进行的秒杀
+        stringRedisTemplate.opsForValue().setIfAbsent(stockKey, voucher.getStock().toString());
+        // 4.所有key在秒杀结束后保留一段时间，之后自动过期
+        Date expireAt = new Date(toMillis(voucher.getEndTime()) + keyRetention);
+        for (String key : Arrays.asList(stockKey, orderKey, infoKey, metricsKey)) {
+            stringRedisTemplate.expireAt(key, expireAt);
+        }
+    }
+
+    @Override
+    public SeckillVoucher preloadOnMiss(Long voucherId) {
+        SeckillVoucher voucher = getById(voucherId);
+        // 已经结束的不加载：key的过期时间可能已经过了，加载后立即过期，之后的每个请求都会重新加载
+        if (voucher == null || !voucher.getEndTime().isAfter(LocalDateTime.now())) {
+            return voucher;
+        }
+        preloadIfAbsent(voucher);
+        return voucher;
+    }
+
+    /**
+     * 持有秒杀券的预热锁后再次检查库存，同一张券同时只有一个线程从数据库加载
+     * @return 是否由当前线程完成了预热
+     */
+    private boolean preloadIfAbsent(SeckillVoucher voucher) {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_PRELOAD_KEY + voucher.getVoucherId());
+        try {
+            if (!lock.tryLock(LOCK_SECKILL_PRELOAD_WAIT, TimeUnit.SECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucher.getVoucherId()))) {
+                return false;
+            }
+            preload(voucher);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int preloadUpcoming() {
+        // 1.查询即将开始、尚未结束的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = query()
+                .le("begin_time", now.plus(preloadAhead, ChronoUnit.MILLIS))
+                .gt("end_time", now)
+                .list();
+        // 2.库存不存在的才需要预热
+        int count = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucher.getVoucherId()))) {
+                continue;
+            }
+            if (preloadIfAbsent(voucher)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int finishEnded() {
+        // 1.查询已经结束、数据还没有过期的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = query()
+                .le("end_time", now.minus(finishDelay, ChronoUnit.MILLIS))
+                .gt("end_time", now.minus(keyRetention, ChronoUnit.MILLIS))
+                .list();
+        int count = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            String infoKey = SECKILL_INFO_KEY + voucher.getVoucherId();
+            if (!STATE_LOADED.equals(stringRedisTemplate.opsForHash().get(infoKey, STATE))) {
+                continue;
+            }
+            finish(voucher);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 秒杀结束后输出秒杀统计，Redis库存与已下单用户的一致性由SeckillReconciler负责
+     * @param voucher
+     */
+    private void finish(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.输出秒杀统计
+        Map<String, Object> metrics = queryMetrics(voucherId);
+        log.info("秒杀券{}结束，请求数：{}，抢到数：{}，售罄时间：{}", voucherId,
+                metrics.get("requests"), metrics.get("admits"), metrics.get("soldOutAt"));
+        // 2.标记为已结束
+        stringRedisTemplate.opsForHash().put(SECKILL_INFO_KEY + voucherId, STATE, STATE_FINISHED);
+    }
+
+    @Override
+    public Map<String, Object> queryMetrics(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(SECKILL_METRICS_KEY + voucherId,
+                Arrays.asList("requests", "admits", "soldOutAt"));
+        String stock = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+        Map<String, Object> result = new LinkedHashMap<>(5);
+        result.put("requests", values.get(0) == null ? 0L : Long.parseLong((String) values.get(0)));
+        result.put("admits", values.get(1) == null ? 0L : Long.parseLong((String) values.get(1)));
+        result.put("soldOutAt", values.get(2) == null ? null : Long.valueOf((String) values.get(2)));
+        result.put("stock", StrUtil.isBlank(stock) ? null : Integer.valueOf(stock));
+        result.put(STATE, stringRedisTemplate.opsForHash().get(SECKILL_INFO_KEY + voucherId, STATE));
+        return result;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
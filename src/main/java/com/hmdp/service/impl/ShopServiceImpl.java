@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -7,6 +9,7 @@ import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.utils.RedisData;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
@@ -14,26 +17,38 @@ import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.ShopChangeTopic;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.ShopSuggestTrie;
+import com.hmdp.utils.ShopSpatialIndex;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ThreadPools;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ibatis.javassist.compiler.ast.Variable;
 import org.apache.tomcat.jni.Time;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 
@@ -53,11 +68,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate  stringRedisTemplate;
 
     // 缓存池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = ThreadPools.newFixedThreadPool(10, "shop-cache-rebuild-");
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+    @Resource
+    private ShopSuggestTrie shopSuggestTrie;
+    @Resource
+    private ShopChangeTopic shopChangeTopic;
     private QueryChainWrapper<Shop> id;
 
+    @Value("${hmdp.shop.geo-radius:5000}")
+    private double geoRadius;
+    @Value("${hmdp.shop.geo-max-results:500}")
+    private long geoMaxResults;
+    @Value("${hmdp.shop.geo-grid-size:0.002}")
+    private double geoGridSize;
+
     /**
      * 查询店铺数据
      * 使用空对象缓存解决缓存穿透问题
@@ -86,6 +118,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public CompletableFuture<Result> queryByIdAsync(Long id) {
+        return cacheClient.querywithLogicalExpireAsync(RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .thenApply(shop -> shop == null ? Result.fail("店铺不存在！") : Result.ok(shop));
+    }
+
     /**
      * 封装使用id查询商铺信息，使用缓存空对象解决缓存穿透问题
      * @param id
@@ -249,65 +288,240 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入地理位置索引
+        shopGeoIndex.update(null, shop);
+        // 通知所有节点更新进程内的店铺索引
+        shopChangeTopic.publish(shop);
+        return Result.ok(shop.getId());
+    }
+
     @Override
     public Result update(Shop shop) {
         if(shop.getId()==null){
             return Result.fail("店铺id不能为空！！");
         }
+        Shop old = getById(shop.getId());
+        if(old == null){
+            return Result.fail("店铺不存在！");
+        }
         // 先修改数据库
         updateById(shop);
         // 再删除缓存
         stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 更新地理位置索引，只修改了部分字段时以数据库中的最新数据为准
+        Shop current = getById(shop.getId());
+        shopGeoIndex.update(old, current);
+        shopChangeTopic.publish(current);
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor) {
         // 1.判断是否需要根据坐标查询
         if(x==null || y==null){
             // 不需要坐标查询，按数据库分页查询
             Page<Shop> page = query().eq("type_id", typeId).page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
             return Result.ok(page);
         }
-        // 2.计算分页参数
-        int from = (current - 1)*SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        // 3.查询redis，按照距离排序、分页。结果：shopId, distance
-        String key = RedisConstants.SHOP_GEO_KEY+typeId;  // GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
+        // 2.坐标量化到网格，同一网格内的用户共用一份候选结果；游标中记录首次查询时的网格和用户坐标，
+        //   翻页时按同一坐标排序，位置变化也不会重复或遗漏
+        long gridX = Math.round(x / geoGridSize);
+        long gridY = Math.round(y / geoGridSize);
+        double originX = x;
+        double originY = y;
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        if(cursor != null){
+            double[] parts = decodeGeoCursor(cursor);
+            if(parts != null){
+                gridX = (long) parts[0];
+                gridY = (long) parts[1];
+                from = (int) parts[2];
+                originX = parts[3];
+                originY = parts[4];
+            }else{
+                from = 0;
+            }
+        }
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3.本地空间索引可用时以用户坐标查询，否则读取网格的候选店铺，按到用户坐标的距离排序
+        List<Long> nearby;
+        if(shopSpatialIndex.isWarm()){
+            nearby = shopSpatialIndex.search(typeId.longValue(), originX, originY,
+                    geoRadius, (int) Math.min(geoMaxResults, end + 1));
+        }else{
+            // 以LRANGE的结果判断是否命中，未命中时直接使用本次查询的结果
+            String key = RedisConstants.CACHE_SHOP_GEO_KEY + typeId + ":" + gridX + ":" + gridY;
+            List<String> members = stringRedisTemplate.opsForList().range(key, 0, -1);
+            if(members == null || members.isEmpty()){
+                members = cacheNearbyShops(key, typeId, gridX * geoGridSize, gridY * geoGridSize);
+            }
+            nearby = sortByDistance(members, originX, originY);
+        }
+        List<Long> ids = nearby.size() <= from ? Collections.emptyList()
+                : nearby.subList(from, Math.min(nearby.size(), end));
+        boolean hasNext = nearby.size() > end;
+        // 4.通过店铺缓存查询店铺，距离按用户的实际坐标计算
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, RedisConstants.LOCK_SHOP_KEY, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        shops.forEach(shop -> shop.setDistance(distance(x, y, shop.getX(), shop.getY())));
+        if(cursor == null){
+            return Result.ok(shops);
+        }
+        // 5.返回下一页的游标，没有下一页时为空
+        ScrollResult r = new ScrollResult();
+        r.setList(shops);
+        if(hasNext){
+            r.setNextCursor(encodeGeoCursor(gridX, gridY, end, originX, originY));
+        }
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Long typeId, String area, Integer current, String cursor) {
+        // 1.没有关键字、关键字无法使用索引或索引还未构建完成，按数据库分页查询
+        if(StrUtil.isBlank(name) || !shopSearchIndex.isSearchable(name)){
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .eq(typeId != null, "type_id", typeId)
+                    .eq(StrUtil.isNotBlank(area), "area", area)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 2.查询倒排索引，传递游标时从上一页最后一条之后继续，否则按页码截取
+        ScrollCursor last = ScrollCursor.decode(cursor);
+        List<ScrollCursor> hits;
+        if(cursor != null){
+            hits = shopSearchIndex.search(name, typeId, area, last, SystemConstants.MAX_PAGE_SIZE);
+        }else{
+            int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+            hits = shopSearchIndex.search(name, typeId, area, null, from + SystemConstants.MAX_PAGE_SIZE);
+            hits = hits.size() <= from ? Collections.emptyList() : hits.subList(from, hits.size());
+        }
+        // 3.通过店铺缓存查询店铺
+        List<Long> ids = hits.stream().map(ScrollCursor::getLastId).collect(Collectors.toList());
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, RedisConstants.LOCK_SHOP_KEY, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if(cursor == null){
+            return Result.ok(shops);
+        }
+        // 4.返回下一页的游标，没有下一页时为空
+        ScrollResult r = new ScrollResult();
+        r.setList(shops);
+        if(hits.size() == SystemConstants.MAX_PAGE_SIZE){
+            r.setNextCursor(hits.get(hits.size() - 1).encode());
+        }
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result suggest(String prefix, Integer count) {
+        return Result.ok(shopSuggestTrie.suggest(prefix, count));
+    }
+
+    /**
+     * 以网格中心查询半径内最近的店铺，以"id,x,y"写入缓存列表，读取时按用户坐标重新排序
+     * GEOSEARCH key FROMLONLAT x y BYRADIUS geoRadius m ASC COUNT geoMaxResults WITHCOORD
+     * @return 写入缓存的列表
+     */
+    private List<String> cacheNearbyShops(String key, Integer typeId, double x, double y) {
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
-                key,
+                RedisConstants.SHOP_GEO_KEY + typeId,
                 GeoReference.fromCoordinate(x, y),
-                new Distance(5000),
-                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
+                new Distance(geoRadius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeCoordinates().sortAscending().limit(geoMaxResults)
         );
-        // 4.解析出id
-        if(results == null){
-            return Result.ok(Collections.emptyList());
+        List<String> ids = new ArrayList<>();
+        if(results != null){
+            results.getContent().forEach(result -> {
+                RedisGeoCommands.GeoLocation<String> location = result.getContent();
+                ids.add(location.getName() + "," + location.getPoint().getX() + "," + location.getPoint().getY());
+            });
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if(list.size() <= from){
-            // 没有下一页了，结束
-            return Result.ok(Collections.emptyList());
+        // 附近没有店铺时写入空字符串，避免重复查询
+        if(ids.isEmpty()){
+            ids.add("");
         }
-        // 4.1截取from到end
-        List<Long> ids = new ArrayList<>(list.size());
-        // List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list1 = list.subList(from, end);
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            // 4.2获得店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3获取店铺距离
-            Distance distance = result.getDistance(); // Distance对象的value值就是距离
-            distanceMap.put(shopIdStr, distance);
-        });
-        // 5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("order by field(id, " + idStr + ")").list();
-        shops.forEach(shop -> {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        // 先写入临时key再RENAME，并发未命中的请求各自整体覆盖，读取方不会看到重复、空的或者只写了一部分的列表
+        String tmpKey = key + ":tmp:" + UUID.randomUUID().toString(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.rPush(tmpKey, ids.toArray(new String[0]));
+            conn.expire(tmpKey, RedisConstants.CACHE_SHOP_GEO_TTL);
+            conn.rename(tmpKey, key);
+            return null;
         });
-        return Result.ok(shops);
+        return ids;
+    }
+
+    /**
+     * 解析缓存列表中的"id,x,y"，按到(x, y)的距离升序返回店铺id
+     */
+    private static List<Long> sortByDistance(List<String> members, double x, double y) {
+        if(members == null || members.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        List<Double> distances = new ArrayList<>(members.size());
+        for (String member : members) {
+            if(StrUtil.isBlank(member)){
+                continue;
+            }
+            String[] parts = member.split(",");
+            ids.add(Long.valueOf(parts[0]));
+            // 没有坐标的成员排在最后，保持原有顺序
+            distances.add(parts.length == 3
+                    ? ShopSpatialIndex.distance(x, y, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]))
+                    : Double.MAX_VALUE);
+        }
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(distances::get));
+        List<Long> sorted = new ArrayList<>(order.length);
+        for (Integer i : order) {
+            sorted.add(ids.get(i));
+        }
+        return sorted;
+    }
+
+    private static String encodeGeoCursor(long gridX, long gridY, int offset, double originX, double originY) {
+        return Base64.encodeUrlSafe(gridX + ":" + gridY + ":" + offset + ":" + originX + ":" + originY);
+    }
+
+    /**
+     * 解析游标
+     * @return {gridX, gridY, offset, originX, originY}，格式不正确时返回null
+     */
+    private static double[] decodeGeoCursor(String cursor) {
+        if(StrUtil.isBlank(cursor)){
+            return null;
+        }
+        try {
+            String[] parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(":");
+            if(parts.length != 5){
+                return null;
+            }
+            long offset = Long.parseLong(parts[2]);
+            if(offset < 0){
+                return null;
+            }
+            return new double[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), offset,
+                    Double.parseDouble(parts[3]), Double.parseDouble(parts[4])};
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static double distance(double x1, double y1, Double x2, Double y2) {
+        if(x2 == null || y2 == null){
+            return 0;
+        }
+        return ShopSpatialIndex.distance(x1, y1, x2, y2);
     }
 
     public void saveShop2Redis(Long id, Long expireSeconds){
@@ -0,0 +1,228 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SignMonth;
+import com.hmdp.mapper.SignMonthMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * <p>
+ *  签到服务实现类
+ *  每个用户每月一个位图 sign:userId:yyyyMM，第n天对应偏移量n-1；过期的月份由定时任务归档到tb_sign_month后删除
+ * </p>
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMonthMapper, SignMonth> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    // 归档时使用的位宽，能容纳最长的月份
+    private static final int ARCHIVE_BITS = 31;
+    // 连续签到最多向前统计的月数
+    private static final int STREAK_MAX_MONTHS = 12;
+    // 归档时每批处理的key数量
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+
+    @Value("${hmdp.sign.keep-months:2}")
+    private int keepMonths;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 当前用户今天签到  setbit sign:userId:yyyyMM dayOfMonth-1 1
+     * @return 今天是否是第一次签到
+     */
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        String key = signKey(userId, YearMonth.from(now));
+        Boolean signed = stringRedisTemplate.opsForValue().setBit(key, now.getDayOfMonth() - 1, true);
+        return Result.ok(!Boolean.TRUE.equals(signed));
+    }
+
+    /**
+     * 统计当前用户截止到今天的连续签到天数
+     * 每个月只用一次 BITFIELD GET u天数 0 取出整月的位，从最低位（最后一天）开始数连续的1，整月都签到时继续统计上个月
+     */
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        YearMonth month = YearMonth.from(now);
+        int days = now.getDayOfMonth();
+        int count = 0;
+        for (int i = 0; i < STREAK_MAX_MONTHS; i++) {
+            long bits = monthBits(userId, month, days);
+            // 取反后末尾0的个数就是末尾连续1的个数
+            int streak = Math.min(Long.numberOfTrailingZeros(~bits), days);
+            count += streak;
+            if (streak < days) {
+                break;
+            }
+            month = month.minusMonths(1);
+            days = month.lengthOfMonth();
+        }
+        return Result.ok(count);
+    }
+
+    /**
+     * 查询当前用户某月的签到情况
+     * @param month 年月，例如202601，为null时查询本月
+     * @return 签到天数和签到的日期
+     */
+    @Override
+    public Result signOfMonth(Integer month) {
+        Long userId = UserHolder.getUser().getId();
+        YearMonth yearMonth;
+        try {
+            yearMonth = month == null ? YearMonth.now() : YearMonth.parse(month.toString(), MONTH_FORMATTER);
+        } catch (RuntimeException e) {
+            return Result.fail("月份格式错误！");
+        }
+        int days = yearMonth.lengthOfMonth();
+        long bits = monthBits(userId, yearMonth, days);
+        List<Integer> signDays = new ArrayList<>();
+        for (int day = 1; day <= days; day++) {
+            if (((bits >> (days - day)) & 1) == 1) {
+                signDays.add(day);
+            }
+        }
+        Map<String, Object> result = new HashMap<>(2);
+        // 等价于 bitcount sign:userId:yyyyMM
+        result.put("count", Long.bitCount(bits));
+        result.put("days", signDays);
+        return Result.ok(result);
+    }
+
+    /**
+     * 读取某月前days天的签到位，第1天为最高位；Redis中不存在时从归档中读取
+     */
+    private long monthBits(Long userId, YearMonth month, int days) {
+        String key = signKey(userId, month);
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(key, BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0));
+        long bits = result == null || result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+        // 还在Redis保留期内的月份不会被归档
+        if (bits != 0 || monthValue(month) >= archiveCutoff(keepMonths)
+                || Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return bits;
+        }
+        SignMonth archived = query().eq("user_id", userId).eq("month", monthValue(month)).one();
+        if (archived == null || archived.getBitmap() == null) {
+            return 0;
+        }
+        return (archived.getBitmap() & 0xFFFFFFFFL) >>> (ARCHIVE_BITS - days);
+    }
+
+    /**
+     * 把Redis中保留的keepMonths个月（包括本月）之前的签到位图归档到tb_sign_month，然后删除Redis中的key
+     * SCAN分批扫描，每批用pipeline读取位图、一次批量插入，已经归档过的跳过
+     * @return 归档的数量
+     */
+    @Override
+    public int archive() {
+        int cutoff = archiveCutoff(keepMonths);
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*").count(ARCHIVE_BATCH_SIZE).build();
+        int[] archived = {0};
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                List<String> batch = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    String[] parts = key.split(":");
+                    if (parts.length == 3 && Integer.parseInt(parts[2]) < cutoff) {
+                        batch.add(key);
+                    }
+                    if (!batch.isEmpty() && (batch.size() == ARCHIVE_BATCH_SIZE || !cursor.hasNext())) {
+                        archived[0] += archiveBatch(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            return null;
+        });
+        return archived[0];
+    }
+
+    private int archiveBatch(List<String> keys) {
+        // 1.用pipeline读取位图  bitfield key get u31 0
+        BitFieldSubCommands get = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(ARCHIVE_BITS)).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.bitfield(key, get);
+            }
+            return null;
+        });
+        List<SignMonth> signs = new ArrayList<>(keys.size());
+        Set<Long> userIds = new HashSet<>();
+        Set<Integer> months = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String[] parts = keys.get(i).split(":");
+            @SuppressWarnings("unchecked")
+            List<Long> value = (List<Long>) results.get(i);
+            long bitmap = value == null || value.isEmpty() || value.get(0) == null ? 0 : value.get(0);
+            SignMonth sign = new SignMonth()
+                    .setUserId(Long.valueOf(parts[1]))
+                    .setMonth(Integer.valueOf(parts[2]))
+                    .setBitmap((int) bitmap)
+                    .setCreateTime(LocalDateTime.now());
+            signs.add(sign);
+            userIds.add(sign.getUserId());
+            months.add(sign.getMonth());
+        }
+        // 2.跳过已经归档过的，上次归档写入数据库后删除key失败时会出现
+        Set<String> exists = new HashSet<>();
+        query().select("user_id", "month").in("user_id", userIds).in("month", months).list()
+                .forEach(sign -> exists.add(sign.getUserId() + ":" + sign.getMonth()));
+        List<SignMonth> toSave = new ArrayList<>(signs.size());
+        for (SignMonth sign : signs) {
+            if (!exists.contains(sign.getUserId() + ":" + sign.getMonth())) {
+                toSave.add(sign);
+            }
+        }
+        saveBatch(toSave);
+        // 3.写入数据库后再删除key
+        stringRedisTemplate.delete(keys);
+        return toSave.size();
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+
+    /**
+     * 早于该年月的签到位图需要归档
+     */
+    private static int archiveCutoff(int keepMonths) {
+        return monthValue(YearMonth.now().minusMonths(Math.max(keepMonths, 1) - 1));
+    }
+
+    private static int monthValue(YearMonth month) {
+        return month.getYear() * 100 + month.getMonthValue();
+    }
+}
@@ -1,9 +1,12 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -13,20 +16,30 @@ import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserConverter;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -137,23 +150,213 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         //7.1随机生成token，作为登录令牌
         String token = UUID.randomUUID().toString();
         // 7.2将User对象转为Hash格式存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        // TODO stringRedisTemplate要求所有数据均为string，而userDTO中的id为Long(不是特别明白)
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) ->
-                                fieldValue.toString()));  // Bean转为Map，同时将非String属性转为stirng
+        UserDTO userDTO = UserConverter.toUserDTO(user);
+        // stringRedisTemplate要求所有数据均为string，userDTO中的id为Long，需要转为String
+        Map<String, Object> userMap = UserConverter.toUserMap(userDTO);
         // 7.3存储
         String tokenKey = RedisConstants.LOGIN_USER_KEY + token;
         stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
         // 7.4设置token有效期
         stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 7.5记录用户的token，修改用户信息时同步修改token中的昵称和头像
+        String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + user.getId();
+        stringRedisTemplate.opsForSet().add(tokensKey, token);
+        stringRedisTemplate.expire(tokensKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         // 还得在拦截器设置刷新有效期代码
 
         return Result.ok(token);
     }
 
+    // 用户信息本地缓存（一级缓存），二级缓存为Redis中的cache:user:id
+    private static final LRUCache<Long, UserDTO> USER_LOCAL_CACHE =
+            CacheUtil.newLRUCache(USER_LOCAL_CACHE_SIZE, USER_LOCAL_CACHE_TTL);
+
+    /**
+     * 根据id查询用户摘要信息（昵称、头像），依次查询本地缓存、Redis、数据库
+     * @param id
+     * @return 用户不存在时返回null
+     */
+    @Override
+    public UserDTO queryUserDTOById(Long id) {
+        List<UserDTO> users = queryUserDTOByIds(Collections.singletonList(id));
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    /**
+     * 批量查询用户摘要信息，返回结果与ids顺序一致，不存在的用户会被跳过
+     * @param ids
+     * @return
+     */
+    @Override
+    public List<UserDTO> queryUserDTOByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, UserDTO> found = new HashMap<>(ids.size());
+        // 1.查询本地缓存
+        List<Long> localMisses = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            UserDTO userDTO = USER_LOCAL_CACHE.get(id);
+            if (userDTO != null) {
+                found.put(id, userDTO);
+            } else {
+                localMisses.add(id);
+            }
+        }
+        // 2.本地未命中的，一次mget查询Redis
+        List<Long> redisMisses = new ArrayList<>();
+        if (!localMisses.isEmpty()) {
+            List<String> keys = localMisses.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList());
+            List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < localMisses.size(); i++) {
+                Long id = localMisses.get(i);
+                String json = jsons == null ? null : jsons.get(i);
+                if (StrUtil.isNotBlank(json)) {
+                    UserDTO userDTO = JSONUtil.toBean(json, UserDTO.class);
+                    found.put(id, userDTO);
+                    USER_LOCAL_CACHE.put(id, userDTO);
+                } else if (json == null) {
+                    // 空字符串说明数据库中也没有该用户，不需要再查库
+                    redisMisses.add(id);
+                }
+            }
+        }
+        // 3.Redis未命中的，一次in查询数据库并回写Redis
+        if (!redisMisses.isEmpty()) {
+            Map<Long, UserDTO> loaded = listByIds(redisMisses).stream()
+                    .map(UserConverter::toUserDTO)
+                    .collect(Collectors.toMap(UserDTO::getId, u -> u));
+            writeUserCache(redisMisses, loaded);
+            loaded.forEach((id, userDTO) -> {
+                found.put(id, userDTO);
+                USER_LOCAL_CACHE.put(id, userDTO);
+            });
+        }
+        // 4.按照ids的顺序返回
+        List<UserDTO> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            UserDTO userDTO = found.get(id);
+            if (userDTO != null) {
+                // 返回副本，调用方修改不会影响本地缓存
+                result.add(UserConverter.copy(userDTO));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 使用pipeline批量回写用户缓存，数据库中不存在的用户写入空值，防止缓存穿透
+     */
+    private void writeUserCache(List<Long> ids, Map<Long, UserDTO> loaded) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                UserDTO userDTO = loaded.get(id);
+                if (userDTO != null) {
+                    conn.set(CACHE_USER_KEY + id, JSONUtil.toJsonStr(userDTO),
+                            Expiration.from(CACHE_USER_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.upsert());
+                } else {
+                    conn.set(CACHE_USER_KEY + id, "",
+                            Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 修改当前登录用户的昵称和头像，先修改数据库，再删除缓存
+     * @param user
+     * @return
+     */
+    @Override
+    public Result updateUser(User user) {
+        Long userId = UserHolder.getUser().getId();
+        String nickName = user.getNickName();
+        String icon = user.getIcon();
+        if (StrUtil.isBlank(nickName) && StrUtil.isBlank(icon)) {
+            return Result.fail("昵称和头像不能同时为空！");
+        }
+        // User的icon默认值为""，因此只更新非空字段
+        boolean success = update()
+                .set(StrUtil.isNotBlank(nickName), "nick_name", nickName)
+                .set(StrUtil.isNotBlank(icon), "icon", icon)
+                .eq("id", userId)
+                .update();
+        if (!success) {
+            return Result.fail("用户不存在！");
+        }
+        evictUserCache(userId);
+        // 同步修改该用户所有登录token中的昵称和头像
+        refreshLoginTokens(userId, nickName, icon);
+        return Result.ok();
+    }
+
+    private static final DefaultRedisScript<Long> LOGIN_USER_UPDATE_SCRIPT;
+
+    static {
+        LOGIN_USER_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        LOGIN_USER_UPDATE_SCRIPT.setLocation(new ClassPathResource("login_user_update.lua"));
+        LOGIN_USER_UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 修改用户登录token中的昵称和头像，已过期的token从集合中移除
+     * @param userId
+     * @param nickName 为空时不修改
+     * @param icon 为空时不修改
+     */
+    private void refreshLoginTokens(Long userId, String nickName, String icon) {
+        String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userId;
+        Set<String> tokens = stringRedisTemplate.opsForSet().members(tokensKey);
+        if (tokens == null || tokens.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>(4);
+        if (StrUtil.isNotBlank(nickName)) {
+            args.add("nickName");
+            args.add(nickName);
+        }
+        if (StrUtil.isNotBlank(icon)) {
+            args.add("icon");
+            args.add(icon);
+        }
+        // 一次pipeline修改所有token
+        List<String> tokenList = new ArrayList<>(tokens);
+        String script = LOGIN_USER_UPDATE_SCRIPT.getScriptAsString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String token : tokenList) {
+                List<String> keysAndArgs = new ArrayList<>(args.size() + 1);
+                keysAndArgs.add(RedisConstants.LOGIN_USER_KEY + token);
+                keysAndArgs.addAll(args);
+                conn.eval(script, ReturnType.INTEGER, 1, keysAndArgs.toArray(new String[0]));
+            }
+            return null;
+        });
+        List<Object> expired = new ArrayList<>();
+        for (int i = 0; i < tokenList.size(); i++) {
+            Object updated = results.get(i);
+            if (!(updated instanceof Long) || (Long) updated == 0L) {
+                expired.add(tokenList.get(i));
+            }
+        }
+        if (!expired.isEmpty()) {
+            stringRedisTemplate.opsForSet().remove(tokensKey, expired.toArray());
+        }
+    }
+
+    /**
+     * 删除用户的本地缓存和Redis缓存
+     * 注意：其他节点的本地缓存只能等待过期，因此本地缓存的TTL设置得较短
+     * @param id
+     */
+    @Override
+    public void evictUserCache(Long id) {
+        stringRedisTemplate.delete(CACHE_USER_KEY + id);
+        USER_LOCAL_CACHE.remove(id);
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User().setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX+ RandomUtil.randomNumbers(6));
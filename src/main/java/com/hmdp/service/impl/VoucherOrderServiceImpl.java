@@ -8,9 +8,14 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncRedis;
+import com.hmdp.utils.LatencyTimer;
+import com.hmdp.utils.Metrics;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.ThreadPools;
 import com.hmdp.utils.UserHolder;
+import io.lettuce.core.ScriptOutputType;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -23,12 +28,15 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -49,29 +57,42 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonClient redissonClient;
+    @Resource
+    private AsyncRedis asyncRedis;
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = ThreadPools.newFixedThreadPool(1, "seckill-order-");
 
     private IVoucherOrderService proxy;
     @PostConstruct
     private void init(){
         // 创建线程任务，秒杀业务需要在类初始化后立即执行
         SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        Metrics.gauge("seckill.queue.size", orderTasks::size);
     }
 
     private class VoucherOrderHandler implements Runnable {
         @Override
         public void run() {
-            try {
-                // 1.获取队列中的订单信息
-                VoucherOrder voucherOrder = orderTasks.take();
-                // 2.创建订单
-                handleVoucherOrder(voucherOrder);
-
-            } catch (Exception e) {
-                log.error("处理订单错误：",e);
+            while (true) {
+                try {
+                    // 1.获取队列中的订单信息
+                    VoucherOrder voucherOrder = orderTasks.take();
+                    QUEUE_TIMER.record(Duration.between(voucherOrder.getCreateTime(), LocalDateTime.now()).toNanos());
+                    // 2.创建订单
+                    long start = System.nanoTime();
+                    try {
+                        handleVoucherOrder(voucherOrder);
+                    } finally {
+                        PERSIST_TIMER.recordSince(start);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    Metrics.counter("seckill.persist.results", "error").increment();
+                    log.error("处理订单错误：",e);
+                }
             }
-
         }
     }
 
@@ -87,6 +108,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         RLock lock = redissonClient.getLock("lock:order" + userId);
         boolean isLock = lock.tryLock(); // 无参默认上锁失败不等待
         if(!isLock){
+            Metrics.counter("seckill.persist.results", "lockFailed").increment();
             log.error("不允许重复下单");
             return;
         }
@@ -101,8 +123,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setResultType(Long.class);
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("E:\\Project\\Java\\hm-dianping\\src\\main\\resources\\seckill.lua"));
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
     }
+    // 脚本返回值：0成功，1库存不足，2重复下单，3未开始，4已结束，5未预热
+    private static final int SECKILL_ENDED = 4;
+    private static final int SECKILL_NOT_LOADED = 5;
+    private static final String[] SECKILL_FAIL_MESSAGES = {
+            "", "库存不足", "不能重复下单", "秒杀尚未开始！", "秒杀已经结束！", "秒杀尚未开放！"
+    };
+    // 秒杀各阶段：admit（lua脚本判断资格）→ queue（在阻塞队列中等待）→ persist（写入数据库）
+    private static final String[] SECKILL_RESULT_TAGS = {
+            "success", "soldOut", "duplicate", "notStarted", "ended", "notLoaded"
+    };
+    private static final LatencyTimer ADMIT_TIMER = Metrics.timer("seckill.stages", "admit");
+    private static final LatencyTimer QUEUE_TIMER = Metrics.timer("seckill.stages", "queue");
+    private static final LatencyTimer PERSIST_TIMER = Metrics.timer("seckill.stages", "persist");
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024*1024);
     /**
      * lua脚本实现优惠券秒杀下单业务
@@ -114,25 +149,110 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 获取用户id
         Long userId = UserHolder.getUser().getId();
         // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
-                voucherId.toString(), userId.toString());
+        int r = executeSeckillScript(voucherId, userId);
+        if(r == SECKILL_NOT_LOADED){
+            // 1.1秒杀券还没有预热（新节点、Redis数据丢失），从数据库加载后重试一次，已经结束的直接返回
+            SeckillVoucher voucher = seckillVoucherService.preloadOnMiss(voucherId);
+            if(voucher == null){
+                return Result.fail("优惠券不存在！");
+            }
+            r = isEnded(voucher) ? SECKILL_ENDED : executeSeckillScript(voucherId, userId);
+        }
+        countAdmitResult(r);
         // 2.判断结果是否为0
-        int r = result.intValue();
         if(r!=0){
             // 2.1不为0，代表没有购买资格
-            return Result.fail( r==1 ?"库存不足":"不能重复下单");
+            return Result.fail(SECKILL_FAIL_MESSAGES[Math.min(r, SECKILL_FAIL_MESSAGES.length - 1)]);
         }
-        // 2.2为0，有购买资格，将下单信息保存到阻塞队列
-        VoucherOrder voucherOrder = new VoucherOrder();
+        // 2.2为0，有购买资格，先获取代理对象，再将下单信息保存到阻塞队列
+        proxy = (IVoucherOrderService) AopContext.currentProxy();
         long orderId = redisIdWorker.nextId("order");
+        return enqueueOrder(voucherId, userId, orderId);
+    }
+
+    /**
+     * 秒杀下单的异步版本，lua脚本和订单id都使用Lettuce异步命令，
+     * 只有秒杀券未预热时才需要查询数据库，放到阻塞线程池执行
+     * @param voucherId
+     * @return
+     */
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        // 回调不在当前线程执行，先获取代理对象
+        IVoucherOrderService currentProxy = (IVoucherOrderService) AopContext.currentProxy();
+        // 1.异步执行lua脚本
+        long start = System.nanoTime();
+        return asyncRedis.<Long>eval(SECKILL_SCRIPT, ScriptOutputType.INTEGER, seckillKeys(voucherId),
+                        userId.toString(), String.valueOf(System.currentTimeMillis()))
+                .thenCompose(result -> {
+                    ADMIT_TIMER.recordSince(start);
+                    int r = result.intValue();
+                    if(r != SECKILL_NOT_LOADED){
+                        return CompletableFuture.completedFuture(r);
+                    }
+                    // 1.1秒杀券还没有预热，从数据库加载后重试一次，已经结束的直接返回
+                    return asyncRedis.supplyBlocking(() -> {
+                        SeckillVoucher voucher = seckillVoucherService.preloadOnMiss(voucherId);
+                        if(voucher == null){
+                            return -1;
+                        }
+                        return isEnded(voucher) ? SECKILL_ENDED : executeSeckillScript(voucherId, userId);
+                    });
+                })
+                .thenCompose(r -> {
+                    countAdmitResult(r);
+                    // 2.没有购买资格
+                    if(r < 0){
+                        return CompletableFuture.completedFuture(Result.fail("优惠券不存在！"));
+                    }
+                    if(r != 0){
+                        return CompletableFuture.completedFuture(
+                                Result.fail(SECKILL_FAIL_MESSAGES[Math.min(r, SECKILL_FAIL_MESSAGES.length - 1)]));
+                    }
+                    // 3.有购买资格，异步生成订单id，保存到阻塞队列
+                    proxy = currentProxy;
+                    return redisIdWorker.nextIdAsync("order")
+                            .thenApply(orderId -> enqueueOrder(voucherId, userId, orderId));
+                });
+    }
+
+    private static boolean isEnded(SeckillVoucher voucher) {
+        return !voucher.getEndTime().isAfter(LocalDateTime.now());
+    }
+
+    private static void countAdmitResult(int r) {
+        String tag = r < 0 ? "notFound" : SECKILL_RESULT_TAGS[Math.min(r, SECKILL_RESULT_TAGS.length - 1)];
+        Metrics.counter("seckill.admit.results", tag).increment();
+    }
+
+    private Result enqueueOrder(Long voucherId, Long userId, long orderId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        // 下单时间为抢到资格的时间，同时用于统计在队列中等待的时间
+        voucherOrder.setCreateTime(LocalDateTime.now());
         voucherOrder.setId(orderId);
         voucherOrder.setUserId(userId);
         voucherOrder.setVoucherId(voucherId);
         orderTasks.add(voucherOrder);
-        // 3.获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         return Result.ok(orderId);
     }
+
+    private int executeSeckillScript(Long voucherId, Long userId) {
+        long start = System.nanoTime();
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, seckillKeys(voucherId),
+                userId.toString(), String.valueOf(System.currentTimeMillis()));
+        ADMIT_TIMER.recordSince(start);
+        return result.intValue();
+    }
+
+    private static List<String> seckillKeys(Long voucherId) {
+        return Arrays.asList(
+                SECKILL_STOCK_KEY + voucherId,
+                SECKILL_ORDER_KEY + voucherId,
+                SECKILL_INFO_KEY + voucherId,
+                SECKILL_METRICS_KEY + voucherId);
+    }
+
     /**
      * 分布式锁实现优惠券下单业务
      * @param
@@ -191,6 +311,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 5.2.判断是否存在
         if (count > 0) {
             // 用户已经购买过了
+            Metrics.counter("seckill.persist.results", "duplicate").increment();
             log.error("用户已经购买过了");
             return ;
         }
@@ -202,10 +323,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success) {
             // 扣减失败
+            Metrics.counter("seckill.persist.results", "soldOut").increment();
             log.error("库存不足");
             return ;
         }
         save(voucherOrder);
+        Metrics.counter("seckill.persist.results", "success").increment();
 
     }
 
@@ -1,5 +1,9 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.core.toolkit.ReflectionKit;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -16,10 +20,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -43,14 +51,118 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 查询店铺的优惠券列表：列表缓存在Redis中，秒杀券的库存用一次MGET读取Redis中的实时库存覆盖
+     * @param shopId
+     * @return
+     */
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1.查询缓存的优惠券列表
+        String key = RedisConstants.CACHE_SHOP_VOUCHER_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        List<Voucher> vouchers;
+        if(json != null){
+            vouchers = JSONUtil.toList(json, Voucher.class);
+        }else{
+            // 2.未命中，查询数据库，空列表也写入缓存
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(vouchers),
+                    RedisConstants.CACHE_SHOP_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        // 3.秒杀券使用Redis中的实时库存  mget seckill:stock:id1 seckill:stock:id2 ...
+        List<Voucher> seckillVouchers = vouchers.stream()
+                .filter(voucher -> voucher.getStock() != null)
+                .collect(Collectors.toList());
+        if(!seckillVouchers.isEmpty()){
+            List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckillVouchers.stream()
+                    .map(voucher -> RedisConstants.SECKILL_STOCK_KEY + voucher.getId())
+                    .collect(Collectors.toList()));
+            for (int i = 0; stocks != null && i < seckillVouchers.size(); i++) {
+                if(StrUtil.isNotBlank(stocks.get(i))){
+                    seckillVouchers.get(i).setStock(Integer.valueOf(stocks.get(i)));
+                }
+            }
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        evictVoucherOfShop(voucher.getShopId());
+    }
+
+    /**
+     * 修改优惠券信息，秒杀券可以同时修改开始、结束时间，库存不允许修改
+     * @param voucher
+     * @return
+     */
+    @Override
+    @Transactional
+    public Result updateVoucher(Voucher voucher) {
+        if(voucher.getId() == null){
+            return Result.fail("优惠券id不能为空！");
+        }
+        Voucher old = getById(voucher.getId());
+        if(old == null){
+            return Result.fail("优惠券不存在！");
+        }
+        // 只修改秒杀时间时tb_voucher没有要修改的列，UPDATE语句没有SET子句，不能执行
+        if(hasColumnToUpdate(voucher)){
+            updateById(voucher);
+        }
+        if(voucher.getBeginTime() != null || voucher.getEndTime() != null){
+            seckillVoucherService.update()
+                    .set(voucher.getBeginTime() != null, "begin_time", voucher.getBeginTime())
+                    .set(voucher.getEndTime() != null, "end_time", voucher.getEndTime())
+                    .eq("voucher_id", voucher.getId())
+                    .update();
+            // 已经预热的秒杀券同步修改Redis中的秒杀时间
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucher.getId());
+            if(seckillVoucher != null
+                    && Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_INFO_KEY + voucher.getId()))){
+                seckillVoucherService.preload(seckillVoucher);
+            }
+        }
+        // 修改了所属店铺时，两个店铺的缓存都要删除
+        evictVoucherOfShop(old.getShopId());
+        if(voucher.getShopId() != null && !voucher.getShopId().equals(old.getShopId())){
+            evictVoucherOfShop(voucher.getShopId());
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 是否有tb_voucher的列需要修改，不包括主键和stock、beginTime、endTime等非表字段
+     */
+    private static boolean hasColumnToUpdate(Voucher voucher) {
+        return TableInfoHelper.getTableInfo(Voucher.class).getFieldList().stream()
+                .anyMatch(field -> ReflectionKit.getFieldValue(voucher, field.getProperty()) != null);
+    }
+
+    /**
+     * 删除店铺的优惠券列表缓存，在事务中时等到提交之后再删除，避免其他请求在提交前把旧数据写回缓存
+     * @param shopId
+     */
+    private void evictVoucherOfShop(Long shopId) {
+        if(shopId == null){
+            return;
+        }
+        String key = RedisConstants.CACHE_SHOP_VOUCHER_KEY + shopId;
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    stringRedisTemplate.delete(key);
+                }
+            });
+            return;
+        }
+        stringRedisTemplate.delete(key);
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -64,9 +176,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀优惠券库存到redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY+voucher.getId(),
-                voucher.getStock().toString());
+        // 保存秒杀优惠券库存、秒杀时间到redis中，之后由定时任务在开始前检查并补齐
+        seckillVoucherService.preload(seckillVoucher);
+        evictVoucherOfShop(voucher.getShopId());
     }
 
 
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 异步接口的工具类：Lettuce异步命令、异步执行lua脚本，
+ * 以及把仍然需要阻塞的操作（查询数据库、多次同步Redis调用）放到独立线程池执行，不占用Tomcat线程
+ */
+@Component
+public class AsyncRedis {
+
+    @Resource
+    private StatefulRedisConnection<String, String> asyncRedisConnection;
+
+    // 执行阻塞操作的线程数
+    @Value("${hmdp.async.blocking-threads:16}")
+    private int blockingThreads;
+    // 阻塞操作的最大排队数，超过后直接失败
+    @Value("${hmdp.async.blocking-queue-size:10000}")
+    private int blockingQueueSize;
+
+    private ExecutorService blockingExecutor;
+
+    @PostConstruct
+    private void init() {
+        blockingExecutor = new ThreadPoolExecutor(blockingThreads, blockingThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(blockingQueueSize),
+                ThreadPools.threadFactory("async-blocking-"));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        blockingExecutor.shutdown();
+    }
+
+    public RedisAsyncCommands<String, String> commands() {
+        return asyncRedisConnection.async();
+    }
+
+    /**
+     * 异步执行lua脚本，先用EVALSHA，脚本没有缓存时改用EVAL
+     * @param script
+     * @param type 返回值类型：INTEGER对应Long，MULTI对应List
+     * @param keys
+     * @param args
+     * @return
+     * @param <T>
+     */
+    public <T> CompletableFuture<T> eval(RedisScript<?> script, ScriptOutputType type, List<String> keys, String... args) {
+        String[] keyArray = keys.toArray(new String[0]);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        commands().<T>evalsha(script.getSha1(), type, keyArray, args).whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (!(cause instanceof RedisNoScriptException)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            commands().<T>eval(script.getScriptAsString(), type, keyArray, args).whenComplete((value2, e2) -> {
+                if (e2 == null) {
+                    result.complete(value2);
+                } else {
+                    result.completeExceptionally(e2);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * 在阻塞线程池中执行，传递当前登录用户
+     * @param supplier
+     * @return
+     * @param <T>
+     */
+    public <T> CompletableFuture<T> supplyBlocking(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(UserHolder.wrap(supplier), blockingExecutor);
+    }
+}
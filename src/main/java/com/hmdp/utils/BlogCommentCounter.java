@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 博客评论计数器，评论数只写Redis（blog:comments:count:id），并把博客id记入脏集合blog:comments:dirty，
+ * 计数和热度由comment.lua原子修改，
+ * 由BlogCommentFlushJob定时批量写回tb_blog.comments
+ */
+@Component
+public class BlogCommentCounter {
+
+    private static final String DIRTY_PROCESSING_KEY = BLOG_COMMENTS_DIRTY_KEY + ":processing";
+
+    private static final DefaultRedisScript<Long> COMMENT_SCRIPT;
+
+    static {
+        COMMENT_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_SCRIPT.setLocation(new ClassPathResource("comment.lua"));
+        COMMENT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 确保计数器存在，不存在时以数据库中的comments初始化
+     * @param blogId
+     * @return 博客不存在时返回false
+     */
+    public boolean ensure(Long blogId) {
+        String key = BLOG_COMMENTS_COUNT_KEY + blogId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return true;
+        }
+        Blog blog = blogMapper.selectOne(new QueryWrapper<Blog>().select("id", "comments").eq("id", blogId));
+        if (blog == null) {
+            return false;
+        }
+        Integer comments = blog.getComments();
+        // 其他线程可能已经初始化并修改过计数，只在不存在时写入
+        stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(comments == null ? 0 : comments));
+        return true;
+    }
+
+    /**
+     * 评论数+1，同时增加热度
+     * @param blogId
+     * @return 最新的评论数，博客不存在时返回null
+     */
+    public Long incr(Long blogId) {
+        Long count = executeIncr(blogId);
+        if (count == null || count < 0) {
+            // 计数器未初始化，从数据库初始化后重试
+            if (!ensure(blogId)) {
+                return null;
+            }
+            count = executeIncr(blogId);
+        }
+        return count;
+    }
+
+    private Long executeIncr(Long blogId) {
+        List<String> keys = Arrays.asList(
+                BLOG_COMMENTS_COUNT_KEY + blogId, BLOG_COMMENTS_DIRTY_KEY, BLOG_HOT_KEY, BLOG_HOT_TMP_KEY);
+        return stringRedisTemplate.execute(COMMENT_SCRIPT, keys, blogId.toString(),
+                String.valueOf(BlogHotRanker.COMMENT_WEIGHT));
+    }
+
+    /**
+     * 批量查询评论数，计数器不存在的博客不在结果中
+     * @param blogIds
+     * @return
+     */
+    public Map<Long, Integer> getCounts(Collection<Long> blogIds) {
+        if (blogIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Long> ids = new ArrayList<>(blogIds);
+        List<String> keys = ids.stream().map(id -> BLOG_COMMENTS_COUNT_KEY + id).collect(Collectors.toList());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Integer> counts = new HashMap<>(ids.size());
+        if (values == null) {
+            return counts;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            String value = values.get(i);
+            if (StrUtil.isNotBlank(value)) {
+                counts.put(ids.get(i), Integer.valueOf(value));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 取出待写回的博客id，与BlogLikeCounter.takeDirty相同，写回成功后调用finishDirty
+     * @return
+     */
+    public Set<String> takeDirty() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(DIRTY_PROCESSING_KEY))) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_COMMENTS_DIRTY_KEY))) {
+                return Collections.emptySet();
+            }
+            stringRedisTemplate.rename(BLOG_COMMENTS_DIRTY_KEY, DIRTY_PROCESSING_KEY);
+        }
+        Set<String> members = stringRedisTemplate.opsForSet().members(DIRTY_PROCESSING_KEY);
+        return members == null ? Collections.emptySet() : members;
+    }
+
+    public void finishDirty() {
+        stringRedisTemplate.delete(DIRTY_PROCESSING_KEY);
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.BLOG_COMMENTS_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_TMP_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_KEY;
+
+/**
+ * 热门博客排行榜，维护Redis中的blog:hot有序集合
+ * 热度 = 点赞数 * LIKE_WEIGHT + 评论数 * COMMENT_WEIGHT + (发布时间 - BEGIN_TIMESTAMP) / DECAY_SECONDS
+ * 热度对点赞、评论是线性的，所以点赞/评论时可以直接用ZADD XX INCR增量更新，发布时间越晚基础分越高，实现按时间衰减
+ */
+@Slf4j
+@Component
+public class BlogHotRanker {
+
+    // 开始时间戳，与RedisIdWorker一致
+    private static final long BEGIN_TIMESTAMP = 1735689600;
+    // 每晚发布DECAY_SECONDS秒，相当于多获得1分
+    private static final double DECAY_SECONDS = 3600;
+    public static final double LIKE_WEIGHT = 1;
+    public static final double COMMENT_WEIGHT = 2;
+    // 重建排行榜时每批从数据库读取的博客数量
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    private static final DefaultRedisScript<Long> HOT_REBUILD_SCRIPT;
+
+    static {
+        HOT_REBUILD_SCRIPT = new DefaultRedisScript<>();
+        HOT_REBUILD_SCRIPT.setLocation(new ClassPathResource("hot_rebuild.lua"));
+        HOT_REBUILD_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+
+    public static double hotScore(Integer liked, Integer comments, LocalDateTime createTime) {
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+        long createSecond = createTime.toEpochSecond(ZoneOffset.UTC);
+        return (liked == null ? 0 : liked) * LIKE_WEIGHT
+                + (comments == null ? 0 : comments) * COMMENT_WEIGHT
+                + (createSecond - BEGIN_TIMESTAMP) / DECAY_SECONDS;
+    }
+
+    /**
+     * 新发布的博客加入排行榜，正在重建时同时加入临时排行榜，避免RENAME覆盖
+     * @param blog
+     */
+    public void add(Blog blog) {
+        double score = hotScore(blog.getLiked(), blog.getComments(), blog.getCreateTime());
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), score);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_TMP_KEY))) {
+            stringRedisTemplate.opsForZSet().add(BLOG_HOT_TMP_KEY, blog.getId().toString(), score);
+        }
+    }
+
+    public boolean exists() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY));
+    }
+
+    /**
+     * 按id分批读取tb_blog，重新计算全部热度写入临时key，最后RENAME覆盖正式排行榜
+     * 用于纠正增量更新丢失造成的偏差，以及清理已删除的博客
+     * tb_blog中的点赞数、评论数由定时任务写回，落后于Redis计数器，因此计算时用计数器覆盖
+     * 重建期间的点赞、评论由like.lua、comment.lua同步增量到临时key，新发布的博客由add同步写入，RENAME时不会丢失
+     * @return 排行榜中的博客数量
+     */
+    public long rebuild() {
+        stringRedisTemplate.delete(BLOG_HOT_TMP_KEY);
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                    .select("id", "liked", "comments", "create_time")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + REBUILD_BATCH_SIZE));
+            if (blogs.isEmpty()) {
+                break;
+            }
+            addBatch(blogs);
+            count += blogs.size();
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_TMP_KEY))) {
+            stringRedisTemplate.delete(BLOG_HOT_KEY);
+            return 0;
+        }
+        stringRedisTemplate.rename(BLOG_HOT_TMP_KEY, BLOG_HOT_KEY);
+        log.debug("热门博客排行榜重建完成，共{}篇", count);
+        return count;
+    }
+
+    /**
+     * 一个脚本读取这批博客的点赞、评论计数器，存在时覆盖数据库中的值，计算热度写入临时key
+     * 读计数器和写入之间没有间隙，写入之后的增量由like.lua、comment.lua同步到临时key
+     * @param blogs
+     */
+    private void addBatch(List<Blog> blogs) {
+        List<String> keys = new ArrayList<>(blogs.size() * 2 + 1);
+        List<String> args = new ArrayList<>(blogs.size() * 4 + 2);
+        keys.add(BLOG_HOT_TMP_KEY);
+        args.add(String.valueOf(LIKE_WEIGHT));
+        args.add(String.valueOf(COMMENT_WEIGHT));
+        for (Blog blog : blogs) {
+            keys.add(BLOG_LIKED_COUNT_KEY + blog.getId());
+            keys.add(BLOG_COMMENTS_COUNT_KEY + blog.getId());
+            args.add(blog.getId().toString());
+            args.add(String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+            args.add(String.valueOf(blog.getComments() == null ? 0 : blog.getComments()));
+            args.add(String.valueOf(hotScore(0, 0, blog.getCreateTime())));
+        }
+        stringRedisTemplate.execute(HOT_REBUILD_SCRIPT, keys, args.toArray());
+    }
+}
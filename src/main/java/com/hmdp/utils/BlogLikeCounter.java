@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.LikeResult;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import io.lettuce.core.ScriptOutputType;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 博客点赞计数器，点赞数只写Redis（blog:liked:count:id），并把博客id记入脏集合blog:liked:dirty，
+ * 点赞切换由like.lua原子完成，
+ * 由BlogLikeFlushJob定时批量写回tb_blog.liked
+ */
+@Component
+public class BlogLikeCounter {
+
+    private static final String DIRTY_PROCESSING_KEY = BLOG_LIKED_DIRTY_KEY + ":processing";
+
+    private static final DefaultRedisScript<List<Long>> LIKE_SCRIPT;
+
+    static {
+        // 脚本返回{是否点赞, 点赞数}，List.class无法携带泛型参数，未检查的转换只在这里出现一次
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> resultType = (Class<List<Long>>) (Class<?>) List.class;
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(resultType);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private AsyncRedis asyncRedis;
+
+    /**
+     * 确保计数器存在，不存在时以数据库中的liked初始化
+     * @param blogId
+     * @return 博客不存在时返回false
+     */
+    public boolean ensure(Long blogId) {
+        String key = BLOG_LIKED_COUNT_KEY + blogId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return true;
+        }
+        Blog blog = blogMapper.selectOne(new QueryWrapper<Blog>().select("id", "liked").eq("id", blogId));
+        if (blog == null) {
+            return false;
+        }
+        Integer liked = blog.getLiked();
+        // 其他线程可能已经初始化并修改过计数，只在不存在时写入
+        stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(liked == null ? 0 : liked));
+        return true;
+    }
+
+    /**
+     * 使用lua脚本原子地切换点赞状态：修改点赞用户集合、点赞计数、脏集合和热度，只需一次Redis调用
+     * @param blogId
+     * @param userId
+     * @return 博客不存在时返回null
+     */
+    public LikeResult toggle(Long blogId, Long userId) {
+        List<Long> result = executeToggle(blogId, userId);
+        if (result.get(0) < 0) {
+            // 计数器未初始化，从数据库初始化后重试
+            if (!ensure(blogId)) {
+                return null;
+            }
+            result = executeToggle(blogId, userId);
+        }
+        return new LikeResult(result.get(0) == 1, result.get(1));
+    }
+
+    /**
+     * 切换点赞状态的异步版本，使用Lettuce异步执行lua脚本，计数器未初始化时在阻塞线程池中从数据库初始化
+     * @param blogId
+     * @param userId
+     * @return 博客不存在时返回null
+     */
+    public CompletableFuture<LikeResult> toggleAsync(Long blogId, Long userId) {
+        return executeToggleAsync(blogId, userId).thenCompose(result -> {
+            if (result.get(0) >= 0) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return asyncRedis.supplyBlocking(() -> ensure(blogId))
+                    .thenCompose(exists -> exists ? executeToggleAsync(blogId, userId) : CompletableFuture.completedFuture(null));
+        }).thenApply(result -> result == null ? null : new LikeResult(result.get(0) == 1, result.get(1)));
+    }
+
+    private CompletableFuture<List<Long>> executeToggleAsync(Long blogId, Long userId) {
+        List<String> keys = Arrays.asList(
+                BLOG_LIKED_KEY + blogId, BLOG_LIKED_COUNT_KEY + blogId, BLOG_LIKED_DIRTY_KEY,
+                BLOG_HOT_KEY, BLOG_HOT_TMP_KEY);
+        return asyncRedis.<List<Long>>eval(LIKE_SCRIPT, ScriptOutputType.MULTI, keys, userId.toString(),
+                String.valueOf(System.currentTimeMillis()), blogId.toString(),
+                String.valueOf(BlogHotRanker.LIKE_WEIGHT));
+    }
+
+    private List<Long> executeToggle(Long blogId, Long userId) {
+        List<String> keys = Arrays.asList(
+                BLOG_LIKED_KEY + blogId, BLOG_LIKED_COUNT_KEY + blogId, BLOG_LIKED_DIRTY_KEY,
+                BLOG_HOT_KEY, BLOG_HOT_TMP_KEY);
+        return stringRedisTemplate.execute(LIKE_SCRIPT, keys, userId.toString(),
+                String.valueOf(System.currentTimeMillis()), blogId.toString(),
+                String.valueOf(BlogHotRanker.LIKE_WEIGHT));
+    }
+
+    /**
+     * 批量查询点赞数，计数器不存在的博客不在结果中
+     * @param blogIds
+     * @return
+     */
+    public Map<Long, Integer> getCounts(Collection<Long> blogIds) {
+        if (blogIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Long> ids = new ArrayList<>(blogIds);
+        List<String> keys = ids.stream().map(id -> BLOG_LIKED_COUNT_KEY + id).collect(Collectors.toList());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Integer> counts = new HashMap<>(ids.size());
+        if (values == null) {
+            return counts;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            String value = values.get(i);
+            if (StrUtil.isNotBlank(value)) {
+                counts.put(ids.get(i), Integer.valueOf(value));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 取出待写回的博客id：把脏集合原子地RENAME为processing集合，写回成功后再删除processing集合。
+     * 如果上一次写回失败或进程重启，processing集合仍然存在，会优先重新处理
+     * @return
+     */
+    public Set<String> takeDirty() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(DIRTY_PROCESSING_KEY))) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_DIRTY_KEY))) {
+                return Collections.emptySet();
+            }
+            stringRedisTemplate.rename(BLOG_LIKED_DIRTY_KEY, DIRTY_PROCESSING_KEY);
+        }
+        Set<String> members = stringRedisTemplate.opsForSet().members(DIRTY_PROCESSING_KEY);
+        return members == null ? Collections.emptySet() : members;
+    }
+
+    public void finishDirty() {
+        stringRedisTemplate.delete(DIRTY_PROCESSING_KEY);
+    }
+}
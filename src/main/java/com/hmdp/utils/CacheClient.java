@@ -5,14 +5,21 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -26,6 +33,8 @@ import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private AsyncRedis asyncRedis;
 
     /**
      * 将任意对象序列化为json存储在redis中并设置TTL过期时间
@@ -70,20 +79,35 @@ public class CacheClient {
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
             Long time, TimeUnit unit
     ){
-        String key = keyPrefix + "id";
+        String key = keyPrefix + id;
+        long start = System.nanoTime();
+        try {
+            return doQueryWithPassThrough(keyPrefix, key, id, type, dbFallback, time, unit);
+        } finally {
+            Metrics.timer("cache.passThrough", keyPrefix).recordSince(start);
+        }
+    }
+
+    private <R,ID> R doQueryWithPassThrough(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit
+    ){
         // 1.从redis查询商品缓存
         String json = stringRedisTemplate.opsForValue().get(key);
         // 2.判断是否存在
         if (StrUtil.isNotBlank(json)) {
             // 3.存在，直接返回
+            Metrics.counter("cache.hits", keyPrefix).increment();
             return JSONUtil.toBean(json, type);
         }
         // 判断命中的是否是空值
         if (json != null) {
             // 返回一个错误信息
+            Metrics.counter("cache.nulls", keyPrefix).increment();
             return null;
         }
         // 4.不存在，根据id查询数据库
+        Metrics.counter("cache.misses", keyPrefix).increment();
         R r = dbFallback.apply(id);
         // 5.不存在，返回错误
         if (r == null) {
@@ -110,7 +134,7 @@ public class CacheClient {
         return stringRedisTemplate.delete(key);
     }
     // 缓存池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = ThreadPools.newFixedThreadPool(10, "cache-rebuild-");
 
     /**
      * 使用逻辑过期时间解决缓存击穿问题
@@ -120,12 +144,23 @@ public class CacheClient {
     public <R,ID> R querywithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
             Long time, TimeUnit unit){
-        String key = keyPrefix + id;
+        long start = System.nanoTime();
+        try {
+            return doQuerywithLogicalExpire(keyPrefix, keyPrefix + id, id, type, dbFallback, time, unit);
+        } finally {
+            Metrics.timer("cache.logicalExpire", keyPrefix).recordSince(start);
+        }
+    }
+
+    private <R,ID> R doQuerywithLogicalExpire(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit){
         // 1.从redis中查询商品缓存
         String redis = stringRedisTemplate.opsForValue().get(key);
         // 2.判断是否存在
         if(StrUtil.isBlank(redis)){
             // 3.不存在，直接返回空
+            Metrics.counter("cache.misses", keyPrefix).increment();
             return null;  // 默认热点数据全部在缓存中
         }
         // 4.命中，现将json反序列化为对象
@@ -135,9 +170,11 @@ public class CacheClient {
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())){
             // 5.1若未过期，直接返回店铺信息
+            Metrics.counter("cache.hits", keyPrefix).increment();
             return shop;
         }
         // 5.2若已过期，需要缓存重建
+        Metrics.counter("cache.stale", keyPrefix).increment();
         // 6.缓存重建
         // 6.1获取互斥锁
         String lockKey = RedisConstants.LOCK_SHOP_KEY+id;
@@ -175,4 +212,168 @@ public class CacheClient {
         return shop;
     }
 
+    /**
+     * 逻辑过期查询的异步版本，使用Lettuce异步命令读取缓存、获取互斥锁，不阻塞调用线程
+     * 回调运行在Lettuce的IO线程，重建缓存仍然交给CACHE_REBUILD_EXECUTOR
+     * @param keyPrefix
+     * @param id
+     * @param type
+     * @param dbFallback
+     * @param time
+     * @param unit
+     * @return
+     * @param <R>
+     * @param <ID>
+     */
+    public <R,ID> CompletableFuture<R> querywithLogicalExpireAsync(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        long start = System.nanoTime();
+        RedisAsyncCommands<String, String> commands = asyncRedis.commands();
+        // 1.从redis中查询缓存
+        CompletableFuture<R> future = commands.get(key).toCompletableFuture().thenCompose(redis -> {
+            // 2.不存在，直接返回空
+            if(StrUtil.isBlank(redis)){
+                Metrics.counter("cache.misses", keyPrefix).increment();
+                return CompletableFuture.completedFuture(null);
+            }
+            // 3.命中，判断是否过期
+            RedisData redisData = JSONUtil.toBean(redis, RedisData.class);
+            R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
+                Metrics.counter("cache.hits", keyPrefix).increment();
+                return CompletableFuture.completedFuture(r);
+            }
+            // 4.已过期，获取互斥锁，成功则开启线程重建，都返回旧数据
+            Metrics.counter("cache.stale", keyPrefix).increment();
+            String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+            return commands.set(lockKey, "1", SetArgs.Builder.nx().ex(RedisConstants.LOCK_SHOP_TTL))
+                    .toCompletableFuture()
+                    .thenApply(ok -> {
+                        if("OK".equals(ok)){
+                            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                                try{
+                                    this.setWithLogicalExpire(key, dbFallback.apply(id), time, unit);
+                                }finally {
+                                    unlock(lockKey);
+                                }
+                            });
+                        }
+                        return r;
+                    });
+        });
+        future.whenComplete((r, e) -> Metrics.timer("cache.logicalExpireAsync", keyPrefix).recordSince(start));
+        return future;
+    }
+
+    /**
+     * 批量查询逻辑过期的缓存，一次MGET读取，未命中的一次查询数据库并用pipeline写回，已过期的异步重建
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param dbFallback 传入的批量查询数据库函数
+     * @param idGetter 从查询结果中获取id
+     * @param lockKeyPrefix 异步重建缓存时互斥锁的key前缀
+     * @param time
+     * @param unit
+     * @return 按ids顺序返回，不存在的数据不返回
+     * @param <R>
+     * @param <ID>
+     */
+    public <R,ID> List<R> queryBatchWithLogicalExpire(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, List<R>> dbFallback,
+            Function<R, ID> idGetter, String lockKeyPrefix, Long time, TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        try {
+            return doQueryBatchWithLogicalExpire(keyPrefix, ids, type, dbFallback, idGetter, lockKeyPrefix, time, unit);
+        } finally {
+            Metrics.timer("cache.batch", keyPrefix).recordSince(start);
+        }
+    }
+
+    private <R,ID> List<R> doQueryBatchWithLogicalExpire(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, List<R>> dbFallback,
+            Function<R, ID> idGetter, String lockKeyPrefix, Long time, TimeUnit unit){
+        // 1.mget key1 key2 ...
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID, R> result = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        int nulls = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            ID id = ids.get(i);
+            String json = jsons == null ? null : jsons.get(i);
+            if(json == null){
+                missIds.add(id);
+                continue;
+            }
+            if(StrUtil.isBlank(json)){
+                // 空值说明数据库中也不存在，不再查询数据库
+                nulls++;
+                continue;
+            }
+            // 2.命中，已过期的仍然返回旧数据，获取锁成功则异步重建
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            result.put(id, JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            if(redisData.getExpireTime().isBefore(LocalDateTime.now())){
+                Metrics.counter("cache.stale", keyPrefix).increment();
+                String lockKey = lockKeyPrefix + id;
+                if(tryLock(lockKey)){
+                    CACHE_REBUILD_EXECUTOR.submit(() -> {
+                        try{
+                            List<R> list = dbFallback.apply(Collections.singletonList(id));
+                            if(!list.isEmpty()){
+                                this.setWithLogicalExpire(keyPrefix + id, list.get(0), time, unit);
+                            }
+                        }finally {
+                            unlock(lockKey);
+                        }
+                    });
+                }
+            }
+        }
+        Metrics.counter("cache.hits", keyPrefix).add(ids.size() - missIds.size() - nulls);
+        Metrics.counter("cache.nulls", keyPrefix).add(nulls);
+        Metrics.counter("cache.misses", keyPrefix).add(missIds.size());
+        // 3.未命中的一次查询数据库，写回缓存，数据库中不存在的写入空值，防止缓存穿透
+        if(!missIds.isEmpty()){
+            List<R> list = dbFallback.apply(missIds);
+            for (R r : list) {
+                result.put(idGetter.apply(r), r);
+            }
+            LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (R r : list) {
+                    RedisData redisData = new RedisData();
+                    redisData.setData(r);
+                    redisData.setExpireTime(expireTime);
+                    conn.set(keyPrefix + idGetter.apply(r), JSONUtil.toJsonStr(redisData));
+                }
+                for (ID id : missIds) {
+                    if(!result.containsKey(id)){
+                        conn.set(keyPrefix + id, "", Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES),
+                                RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+        }
+        // 4.按ids顺序返回
+        List<R> ordered = new ArrayList<>(result.size());
+        for (ID id : ids) {
+            R r = result.get(id);
+            if(r != null){
+                ordered.add(r);
+            }
+        }
+        return ordered;
+    }
 }
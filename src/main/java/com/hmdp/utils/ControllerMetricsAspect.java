@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计com.hmdp.controller下所有接口的耗时、吞吐量和异常数，标签为“类名.方法名”，
+ * 异步接口在CompletableFuture完成时记录
+ */
+@Aspect
+@Component
+public class ControllerMetricsAspect {
+
+    // 每个接口方法的指标，第一次调用后缓存，之后只需一次Map查找
+    private final ConcurrentMap<Method, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Around("within(com.hmdp.controller..*)")
+    public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Endpoint endpoint = endpoints.get(method);
+        if (endpoint == null) {
+            endpoint = endpoints.computeIfAbsent(method, Endpoint::new);
+        }
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable e) {
+            endpoint.errors.increment();
+            endpoint.timer.recordSince(start);
+            throw e;
+        }
+        if (result instanceof CompletionStage) {
+            Endpoint current = endpoint;
+            ((CompletionStage<?>) result).whenComplete((value, e) -> {
+                if (e != null) {
+                    current.errors.increment();
+                }
+                current.timer.recordSince(start);
+            });
+        } else {
+            endpoint.timer.recordSince(start);
+        }
+        return result;
+    }
+
+    private static class Endpoint {
+        private final LatencyTimer timer;
+        private final LongAdder errors;
+
+        Endpoint(Method method) {
+            String tag = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+            this.timer = Metrics.timer("http.server.requests", tag);
+            this.errors = Metrics.counter("http.server.errors", tag);
+        }
+    }
+}
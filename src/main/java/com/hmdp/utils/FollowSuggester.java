@@ -0,0 +1,232 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 可能认识的人，维护Redis中的follow:suggest:userId有序集合
+ * 候选人为二度关注（关注的人所关注的人），每条路径贡献 1 / log2(2 + 中间用户的关注数)，关注很多人的用户权重更低
+ * 关注时增量更新；取关时、以及查询时推荐列表不存在，标记为脏，由FollowSuggestJob重新计算
+ */
+@Component
+public class FollowSuggester {
+
+    // 从数据库查询关注数时每批的用户数
+    private static final int MISSING_BATCH_SIZE = 100;
+
+    @Value("${hmdp.follow.suggest-size:50}")
+    private int suggestSize;
+    @Value("${hmdp.follow.suggest-sample-size:200}")
+    private int sampleSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private FollowMapper followMapper;
+
+    /**
+     * 重新计算用户的推荐列表
+     * @param userId
+     */
+    public void compute(Long userId) {
+        // 1.查询用户的关注，超过采样数量时随机采样
+        Set<String> follows = queryFollows(userId);
+        List<String> followees = new ArrayList<>(follows);
+        followees.remove(FOLLOW_SET_PLACEHOLDER);
+        if (followees.size() > sampleSize) {
+            Collections.shuffle(followees);
+            followees = followees.subList(0, sampleSize);
+        }
+        // 2.一次pipeline查询每个关注对象的关注数、是否有占位成员和随机采样的关注
+        //   scard follows:id  sismember follows:id 0  srandmember follows:id sampleSize
+        List<String> finalFollowees = followees;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String followee : finalFollowees) {
+                conn.sCard(FOLLOWS_KEY + followee);
+                conn.sIsMember(FOLLOWS_KEY + followee, FOLLOW_SET_PLACEHOLDER);
+                conn.sRandMember(FOLLOWS_KEY + followee, sampleSize);
+            }
+            return null;
+        });
+        // 3.累加二度关注的得分，关注集合不在Redis中的用户从数据库查询
+        Map<String, Double> scores = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < followees.size(); i++) {
+            Long size = (Long) results.get(3 * i);
+            if (size == null || size == 0) {
+                missing.add(Long.valueOf(followees.get(i)));
+                continue;
+            }
+            // 懒加载的集合包含一个占位成员，此前写入的集合没有
+            if (Boolean.TRUE.equals(results.get(3 * i + 1))) {
+                size--;
+            }
+            @SuppressWarnings("unchecked")
+            Collection<String> members = (Collection<String>) results.get(3 * i + 2);
+            addScores(scores, members, size);
+        }
+        addMissingScores(scores, missing);
+        // 4.排除自己和已关注的用户，取得分最高的suggestSize个
+        scores.remove(userId.toString());
+        scores.remove(FOLLOW_SET_PLACEHOLDER);
+        scores.keySet().removeAll(follows);
+        PriorityQueue<Map.Entry<String, Double>> topK = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            topK.offer(entry);
+            if (topK.size() > suggestSize) {
+                topK.poll();
+            }
+        }
+        // 5.写入临时key后改名覆盖推荐列表，读取方不会看到空的或者只写了一部分的列表；
+        //   没有候选人时写入占位成员，避免重复计算
+        String key = FOLLOW_SUGGEST_KEY + userId;
+        String tmpKey = key + ":tmp:" + UUID.randomUUID().toString(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (topK.isEmpty()) {
+                conn.zAdd(tmpKey, 0, FOLLOW_SET_PLACEHOLDER);
+            }
+            for (Map.Entry<String, Double> entry : topK) {
+                conn.zAdd(tmpKey, entry.getValue(), entry.getKey());
+            }
+            conn.expire(tmpKey, TimeUnit.MINUTES.toSeconds(FOLLOW_SUGGEST_TTL));
+            conn.rename(tmpKey, key);
+            return null;
+        });
+    }
+
+    /**
+     * 用户关注了followUserId，把followUserId的关注加入推荐列表，并从推荐列表中移除followUserId
+     * 推荐列表不存在时不处理，下次查询时完整计算
+     */
+    public void onFollow(Long userId, Long followUserId) {
+        String key = FOLLOW_SUGGEST_KEY + userId;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, followUserId.toString());
+        String followeeKey = FOLLOWS_KEY + followUserId;
+        Long size = stringRedisTemplate.opsForSet().size(followeeKey);
+        if (size == null || size == 0) {
+            return;
+        }
+        List<String> members = stringRedisTemplate.opsForSet().distinctRandomMembers(followeeKey, sampleSize)
+                .stream()
+                .filter(member -> !FOLLOW_SET_PLACEHOLDER.equals(member) && !member.equals(userId.toString()))
+                .collect(Collectors.toList());
+        if (members.isEmpty()) {
+            return;
+        }
+        // 排除已关注的用户  smismember follows:userId id1 id2 ...
+        Map<Object, Boolean> followed = stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, members.toArray());
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(followeeKey, FOLLOW_SET_PLACEHOLDER))) {
+            size--;
+        }
+        double weight = pathWeight(size);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String member : members) {
+                if (followed != null && Boolean.TRUE.equals(followed.get(member))) {
+                    continue;
+                }
+                conn.zIncrBy(key, weight, member);
+            }
+            // 只保留得分最高的suggestSize个
+            conn.zRemRange(key, 0, -suggestSize - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 取关后经过followUserId的路径失效，标记为脏，由定时任务重新计算
+     */
+    public void onUnfollow(Long userId, Long followUserId) {
+        stringRedisTemplate.opsForZSet().remove(FOLLOW_SUGGEST_KEY + userId, followUserId.toString());
+        stringRedisTemplate.opsForSet().add(FOLLOW_SUGGEST_DIRTY_KEY, userId.toString());
+    }
+
+    /**
+     * 推荐列表不存在，交给定时任务计算
+     */
+    public void request(Long userId) {
+        stringRedisTemplate.opsForSet().add(FOLLOW_SUGGEST_DIRTY_KEY, userId.toString());
+    }
+
+    /**
+     * 取出一批需要重新计算的用户
+     */
+    public List<String> popDirty(int count) {
+        List<String> userIds = stringRedisTemplate.opsForSet().pop(FOLLOW_SUGGEST_DIRTY_KEY, count);
+        return userIds == null ? Collections.emptyList() : userIds;
+    }
+
+    /**
+     * 关注集合不在Redis中的用户，按MISSING_BATCH_SIZE分批，每批GROUP BY查询关注数，
+     * 再用一条UNION ALL查询每个用户最多sampleSize个关注，避免一次IN查询出所有关注
+     */
+    private void addMissingScores(Map<String, Double> scores, List<Long> missing) {
+        for (int from = 0; from < missing.size(); from += MISSING_BATCH_SIZE) {
+            List<Long> batch = missing.subList(from, Math.min(missing.size(), from + MISSING_BATCH_SIZE));
+            // select user_id, count(*) from tb_follow where user_id in (...) group by user_id
+            List<Map<String, Object>> rows = followMapper.selectMaps(new QueryWrapper<Follow>()
+                    .select("user_id", "count(*) AS follows")
+                    .in("user_id", batch)
+                    .groupBy("user_id"));
+            if (rows.isEmpty()) {
+                continue;
+            }
+            Map<Long, List<String>> samples = new HashMap<>(rows.size());
+            for (Follow follow : followMapper.sampleFollows(new ArrayList<>(batch), sampleSize)) {
+                samples.computeIfAbsent(follow.getUserId(), k -> new ArrayList<>())
+                        .add(follow.getFollowUserId().toString());
+            }
+            for (Map<String, Object> row : rows) {
+                long followeeId = ((Number) row.get("user_id")).longValue();
+                long size = ((Number) row.get("follows")).longValue();
+                addScores(scores, samples.get(followeeId), size);
+            }
+        }
+    }
+
+    private Set<String> queryFollows(Long userId) {
+        Set<String> follows = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        if (follows != null && !follows.isEmpty()) {
+            return follows;
+        }
+        Set<String> result = new HashSet<>();
+        followMapper.selectList(new QueryWrapper<Follow>()
+                        .select("follow_user_id")
+                        .eq("user_id", userId))
+                .forEach(follow -> result.add(follow.getFollowUserId().toString()));
+        return result;
+    }
+
+    private void addScores(Map<String, Double> scores, Collection<String> members, long followCount) {
+        if (members == null) {
+            return;
+        }
+        double weight = pathWeight(followCount);
+        for (String member : members) {
+            scores.merge(member, weight, Double::sum);
+        }
+    }
+
+    private static double pathWeight(long followCount) {
+        return 1 / (Math.log(2 + followCount) / Math.log(2));
+    }
+}
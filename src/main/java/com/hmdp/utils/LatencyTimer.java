@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图，分桶方式与HdrHistogram相同：按2的幂分段，每段再线性分为16个桶，相对误差不超过1/16。
+ * 记录时只有下标计算和原子自增，不分配对象；另外按秒记录最近60秒的次数，用于计算吞吐量，
+ * 每个槽位的秒数和次数合并在一个long中（高32位为秒，低32位为次数），切换到新的一秒和计数是同一次CAS，不会丢失并发的计数
+ */
+public class LatencyTimer {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最大记录2^42纳秒（约73分钟），更大的值计入最后一个桶
+    private static final int MAX_MAGNITUDE = 42;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final int WINDOW_SECONDS = 60;
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray secondSlots = new AtomicLongArray(WINDOW_SECONDS);
+
+    /**
+     * 记录一次耗时
+     * @param nanos 纳秒
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        // 当前秒的计数，槽位属于更早的秒时从1重新开始
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        while (true) {
+            long current = secondSlots.get(slot);
+            long next = current >>> COUNT_BITS == second ? current + 1 : second << COUNT_BITS | 1;
+            if (secondSlots.compareAndSet(slot, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 记录从start（System.nanoTime()）到现在的耗时
+     * @param start
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * 统计快照，时间单位为毫秒
+     * @return count、rate（最近60秒每秒次数）、mean、max和各个分位数
+     */
+    public Map<String, Object> snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        long n = count.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", n);
+        result.put("rate", rate());
+        result.put("mean", n == 0 ? 0 : toMillis(totalNanos.sum() / n));
+        result.put("max", toMillis(maxNanos.get()));
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && p < PERCENTILES.length; i++) {
+            seen += copy[i];
+            while (p < PERCENTILES.length && total > 0 && seen >= Math.ceil(total * PERCENTILES[p])) {
+                result.put(PERCENTILE_NAMES[p++], toMillis(valueOf(i)));
+            }
+        }
+        while (p < PERCENTILES.length) {
+            result.put(PERCENTILE_NAMES[p++], 0);
+        }
+        return result;
+    }
+
+    private double rate() {
+        long now = System.currentTimeMillis() / 1000;
+        long sum = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long value = secondSlots.get(i);
+            long stamp = value >>> COUNT_BITS;
+            // 不包括当前还没有结束的一秒
+            if (stamp < now && stamp >= now - WINDOW_SECONDS) {
+                sum += value & COUNT_MASK;
+            }
+        }
+        return (double) sum / WINDOW_SECONDS;
+    }
+
+    private static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶的代表值，取桶的中点
+     */
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.metrics.CommandLatencyRecorder;
+import io.lettuce.core.protocol.ProtocolKeyword;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 记录Lettuce每种Redis命令从发送到完成的耗时，同步的StringRedisTemplate和异步连接都会经过这里
+ */
+public class LettuceLatencyRecorder implements CommandLatencyRecorder {
+
+    private final ConcurrentMap<ProtocolKeyword, LatencyTimer> timers = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordCommandLatency(SocketAddress local, SocketAddress remote, ProtocolKeyword commandType,
+                                     long firstResponseLatency, long completionLatency) {
+        LatencyTimer timer = timers.get(commandType);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(commandType, type -> Metrics.timer("redis.commands", type.name()));
+        }
+        timer.record(completionLatency);
+    }
+}
@@ -4,6 +4,7 @@ import com.hmdp.entity.User;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.servlet.HandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.HashSet;
@@ -16,6 +17,10 @@ public class LoginInterceptor implements HandlerInterceptor {
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         // 判断是否需要拦截（Thread中是否有用户）
         // log.info("判断是否需要拦截（Thread）中是否有用户");
+        // 异步接口返回结果时的再次分发，第一次分发已经校验过
+        if(request.getDispatcherType() == DispatcherType.ASYNC){
+            return true;
+        }
         if(UserHolder.getUser() == null){
             response.setStatus(401);
             // 拦截
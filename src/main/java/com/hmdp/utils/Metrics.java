@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的指标注册表，按名称和一个标签值区分，命名与Micrometer一致（小写、点分隔），
+ * 以后引入Micrometer时可以按同样的名称、标签注册。
+ * 已存在的指标只需两次Map查找，不分配对象，调用方也可以把查到的指标保存下来重复使用
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, LatencyTimer>> TIMERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Supplier<? extends Number>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LatencyTimer timer(String name, String tag) {
+        ConcurrentMap<String, LatencyTimer> timers = TIMERS.get(name);
+        if (timers == null) {
+            timers = TIMERS.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+        }
+        LatencyTimer timer = timers.get(tag);
+        return timer != null ? timer : timers.computeIfAbsent(tag, k -> new LatencyTimer());
+    }
+
+    public static LongAdder counter(String name, String tag) {
+        ConcurrentMap<String, LongAdder> counters = COUNTERS.get(name);
+        if (counters == null) {
+            counters = COUNTERS.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+        }
+        LongAdder counter = counters.get(tag);
+        return counter != null ? counter : counters.computeIfAbsent(tag, k -> new LongAdder());
+    }
+
+    /**
+     * 注册瞬时值指标，查询时才调用supplier
+     * @param name
+     * @param supplier
+     */
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * 所有指标的快照，按名称排序
+     * @return timers：名称 -> 标签 -> 统计，counters：名称 -> 标签 -> 次数，gauges：名称 -> 当前值
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> timers = new TreeMap<>();
+        TIMERS.forEach((name, tags) -> {
+            Map<String, Object> values = new TreeMap<>();
+            tags.forEach((tag, timer) -> values.put(tag, timer.snapshot()));
+            timers.put(name, values);
+        });
+        Map<String, Object> counters = new TreeMap<>();
+        COUNTERS.forEach((name, tags) -> {
+            Map<String, Long> values = new TreeMap<>();
+            tags.forEach((tag, counter) -> values.put(tag, counter.sum()));
+            counters.put(name, values);
+        });
+        Map<String, Object> gauges = new TreeMap<>();
+        GAUGES.forEach((name, supplier) -> gauges.put(name, supplier.get()));
+        Map<String, Object> result = new TreeMap<>();
+        result.put("timers", timers);
+        result.put("counters", counters);
+        result.put("gauges", gauges);
+        return result;
+    }
+}
@@ -5,6 +5,7 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30000L;  // 用户token保存时长（min）
+    public static final String LOGIN_USER_TOKENS_KEY = "login:tokens:";  // 用户id -> 该用户登录过的token集合
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -12,13 +13,78 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shoptype";
+    public static final String CACHE_SHOP_GEO_KEY = "cache:shop:geo:";
+    public static final Long CACHE_SHOP_GEO_TTL = 30L;  // 附近店铺结果缓存时长（s）
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_INFO_KEY = "seckill:info:";
+    public static final String SECKILL_METRICS_KEY = "seckill:metrics:";
+    public static final String LOCK_SECKILL_LIFECYCLE_KEY = "lock:seckill:lifecycle";
+    public static final String LOCK_SECKILL_PRELOAD_KEY = "lock:seckill:preload:";
+    public static final Long LOCK_SECKILL_PRELOAD_WAIT = 5L;  // 等待其他线程预热秒杀券的最长时间（s）
+    public static final String SECKILL_RECONCILE_REPORT_KEY = "seckill:reconcile:report";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "lock:seckill:reconcile";
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 30L;
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_COUNT_KEY = "blog:liked:count:";
+    public static final String BLOG_LIKED_DIRTY_KEY = "blog:liked:dirty";
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "lock:blog:liked:flush";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_TMP_KEY = "blog:hot:tmp";  // 重建排行榜时写入的临时key
+    public static final String CACHE_BLOG_HOT_KEY = "cache:blog:hot:first";
+    public static final Long CACHE_BLOG_HOT_TTL = 10L;  // 热门博客首页缓存时长（s）
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
+    public static final String BLOG_COMMENTS_KEY = "blog:comments:";
+    public static final String COMMENT_REPLIES_KEY = "comment:replies:";
+    public static final Long COMMENT_IDS_TTL = 60L;  // 评论id集合的有效期（min），过期后从数据库重新加载
+    public static final String LOCK_COMMENT_IDS_KEY = "lock:";  // 加载评论id集合的锁，后接集合的key
+    public static final Long LOCK_COMMENT_IDS_WAIT = 5L;  // 等待其他线程加载评论id集合的最长时间（s）
+    public static final String CACHE_COMMENT_KEY = "cache:comment:";
+    public static final Long CACHE_COMMENT_TTL = 30L;
+    public static final String BLOG_COMMENTS_COUNT_KEY = "blog:comments:count:";
+    public static final String BLOG_COMMENTS_DIRTY_KEY = "blog:comments:dirty";
+    public static final String LOCK_BLOG_COMMENTS_FLUSH_KEY = "lock:blog:comments:flush";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FANS_KEY = "fans:";
+    public static final Long FOLLOW_SET_TTL = 60L;  // 关注/粉丝集合的有效期（min），过期后从数据库重新加载
+    public static final String LOCK_FOLLOW_SET_KEY = "lock:";  // 加载关注/粉丝集合的锁，后接集合的key
+    public static final Long LOCK_FOLLOW_SET_WAIT = 5L;  // 等待其他线程加载关注/粉丝集合的最长时间（s）
+    public static final String FOLLOW_COUNT_KEY = "follow:count:";
+    public static final String FOLLOWS_HLL_KEY = "follows:hll:";
+    public static final String FOLLOW_COMMON_KEY = "follow:common:";
+    public static final Long FOLLOW_COMMON_TTL = 60L;  // 共同关注结果缓存时长（s）
+    public static final String FOLLOW_SUGGEST_KEY = "follow:suggest:";
+    public static final Long FOLLOW_SUGGEST_TTL = 1440L;  // 推荐列表有效期（min）
+    public static final String FOLLOW_SUGGEST_DIRTY_KEY = "follow:suggest:dirty";
+    public static final String LOCK_FOLLOW_SUGGEST_KEY = "lock:follow:suggest";
+    // 关注/粉丝集合的占位成员，集合存在即表示已从数据库加载，用户id从1开始，不会冲突
+    public static final String FOLLOW_SET_PLACEHOLDER = "0";
+
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    public static final String FEED_STALE_KEY = "feed:stale";
+    public static final String USER_ACTIVE_KEY = "user:active";
+    public static final String USER_ACTIVE_SINCE_KEY = "user:active:since";  // 开始记录活跃时间的时间戳
+    public static final Long USER_ACTIVE_RECORD_INTERVAL = 10L;  // 同一用户活跃时间的最小记录间隔（min）
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String LOCK_SHOP_GEO_KEY = "lock:shop:geo";
+    public static final String SHOP_CHANGE_TOPIC = "topic:shop:change";  // 店铺修改事件，各节点更新进程内的店铺索引
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:sign:archive";
+    public static final String UV_KEY = "uv:";
+    public static final Long UV_DAY_TTL = 8L;  // 每日访客统计保留天数
+    public static final String CACHE_UV_WEEK_KEY = "cache:uv:week:";
+    public static final Long CACHE_UV_WEEK_TTL = 60L;  // 最近7天访客数缓存时长（s）
 }
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Component;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class RedisIdWorker {
@@ -16,8 +17,10 @@ public class RedisIdWorker {
     private static  final int COUNT_BITS = 32;
 
     private StringRedisTemplate stringRedisTemplate;
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private AsyncRedis asyncRedis;
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, AsyncRedis asyncRedis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.asyncRedis = asyncRedis;
     }
 
     public long nextId(String keyPrefix){
@@ -37,6 +40,20 @@ public class RedisIdWorker {
         return timeStamp << COUNT_BITS | count;
     }
 
+    /**
+     * 异步生成id，序列号使用Lettuce异步命令自增，用于异步接口
+     * @param keyPrefix
+     * @return
+     */
+    public CompletableFuture<Long> nextIdAsync(String keyPrefix){
+        LocalDateTime now = LocalDateTime.now();
+        long timeStamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        return asyncRedis.commands().incr("icr:" + keyPrefix + ":" + date)
+                .toCompletableFuture()
+                .thenApply(count -> timeStamp << COUNT_BITS | count);
+    }
+
     /**
      * 生成开始时间戳
      * @param args
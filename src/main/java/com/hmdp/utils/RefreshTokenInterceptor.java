@@ -1,30 +1,48 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
     // 因为RefreshTokenInterceptor??不是由容器创建，而是由MvcConfig手动创建的，因此不能用@AutoWired自动注入变量
     // 可以由MvcConfig自动注入，在创建RefreshTokenInterceptor时使用构造函数
     private StringRedisTemplate stringRedisTemplate;
 
+    // 最近已记录过活跃时间的用户
+    private static final TimedCache<Long, Boolean> ACTIVE_RECORDED =
+            CacheUtil.newTimedCache(TimeUnit.MINUTES.toMillis(RedisConstants.USER_ACTIVE_RECORD_INTERVAL));
+
+    static {
+        // 定时清理过期的记录，防止内存泄漏
+        ACTIVE_RECORDED.schedulePrune(TimeUnit.MINUTES.toMillis(RedisConstants.USER_ACTIVE_RECORD_INTERVAL));
+    }
+
     public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步接口返回结果时会再次分发请求，登录校验已经在第一次分发时完成
+        if(request.getDispatcherType() == DispatcherType.ASYNC){
+            return true;
+        }
         // 从Redis中获取数据
         // 1.获取请求头中的token
         String token = request.getHeader(SystemConstants.TOKEN_HEADER);  // authorizaion单词写错了，导致一直无法获得token，一直跳转到登录界面
@@ -45,11 +63,38 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         // 6.保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期
-        stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 记录用户最近活跃时间，用于跳过不活跃粉丝的推送
+        recordActive(userDTO.getId());
+        // 7.刷新token有效期，用户的token集合同时续期，修改用户信息时才能找到仍在使用的token
+        String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userDTO.getId();
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.LOGIN_USER_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.expire(tokenKey, ttl);
+            conn.expire(tokensKey, ttl);
+            return null;
+        });
 
         return true;
     }
+    /**
+     * 记录用户最近活跃时间到user:active，同一用户在USER_ACTIVE_RECORD_INTERVAL内只记录一次
+     * @param userId
+     */
+    private void recordActive(Long userId) {
+        if (ACTIVE_RECORDED.get(userId, false) != null) {
+            return;
+        }
+        ACTIVE_RECORDED.put(userId, Boolean.TRUE);
+        stringRedisTemplate.opsForZSet().add(RedisConstants.USER_ACTIVE_KEY, userId.toString(), System.currentTimeMillis());
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步接口不会在当前线程执行afterCompletion，Tomcat线程被归还前必须清理用户信息
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         // 业务执行完毕销毁用户信息，防止内存泄漏
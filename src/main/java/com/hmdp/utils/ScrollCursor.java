@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 滚动分页游标：上一页最后一条的分数、与该分数相同的已返回条数、最后一条的id
+ * 对外编码为base64字符串，前端不需要理解其中的内容
+ */
+@Data
+@AllArgsConstructor
+public class ScrollCursor {
+    private long score;
+    private int offset;
+    private long lastId;
+
+    public String encode() {
+        return Base64.encodeUrlSafe(score + ":" + offset + ":" + lastId);
+    }
+
+    /**
+     * 解析游标
+     * @param cursor
+     * @return 格式不正确时返回null
+     */
+    public static ScrollCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String[] parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+            return new ScrollCursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
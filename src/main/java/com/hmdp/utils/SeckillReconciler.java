@@ -0,0 +1,258 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.dto.SeckillDrift;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存对账：Lua脚本扣减Redis库存，订单队列再扣减数据库库存，下单失败只记录日志，两边会悄悄不一致。
+ * 对每张进行中或刚结束的秒杀券检查：
+ * Redis库存 + 已下单用户数 = 总库存，数据库库存 + 订单数 = 总库存，订单用户都在已下单用户中，已下单用户都有订单。
+ * 订单、已下单用户都分批扫描，内存占用与订单数无关
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private static final int RECONCILE_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> RECONCILE_SCRIPT;
+
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("seckill_reconcile.lua"));
+        RECONCILE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    // 是否自动修复，关闭后只输出报告
+    @Value("${hmdp.seckill.reconcile-repair:true}")
+    private boolean repair;
+    @Value("${hmdp.seckill.finish-delay:60000}")
+    private long finishDelay;
+    @Value("${hmdp.seckill.key-retention:86400000}")
+    private long keyRetention;
+
+    /**
+     * 对所有已经开始、Redis数据还没有过期的秒杀券对账，报告写入Redis
+     * @return 有不一致的秒杀券报告
+     */
+    public List<SeckillDrift> reconcile() {
+        // 1.查询已经开始、数据还没有过期的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                .le("begin_time", now)
+                .gt("end_time", now.minus(keyRetention, ChronoUnit.MILLIS)));
+        if (vouchers.isEmpty()) {
+            stringRedisTemplate.delete(SECKILL_RECONCILE_REPORT_KEY);
+            return Collections.emptyList();
+        }
+        // 2.一次分组查询所有秒杀券的订单数
+        Map<Long, Long> orderCounts = countOrders(vouchers.stream()
+                .map(SeckillVoucher::getVoucherId).collect(Collectors.toList()));
+        // 3.逐个对账，只保留有不一致的
+        List<SeckillDrift> report = new ArrayList<>();
+        for (SeckillVoucher voucher : vouchers) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_INFO_KEY + voucher.getVoucherId()))) {
+                // 没有预热过，由SeckillLifecycleJob负责
+                continue;
+            }
+            boolean settled = !voucher.getEndTime().isAfter(now.minus(finishDelay, ChronoUnit.MILLIS));
+            SeckillDrift drift = reconcile(voucher, orderCounts.getOrDefault(voucher.getVoucherId(), 0L), settled);
+            if (isDrifted(drift)) {
+                report.add(drift);
+                log.warn("秒杀券库存不一致：{}", drift);
+            }
+        }
+        // 4.报告写入Redis，任意节点都可以查询
+        stringRedisTemplate.opsForValue().set(SECKILL_RECONCILE_REPORT_KEY, JSONUtil.toJsonStr(report));
+        return report;
+    }
+
+    /**
+     * 查询最近一次对账报告
+     * @return
+     */
+    public List<SeckillDrift> queryReport() {
+        String json = stringRedisTemplate.opsForValue().get(SECKILL_RECONCILE_REPORT_KEY);
+        return json == null ? Collections.emptyList() : JSONUtil.toList(json, SeckillDrift.class);
+    }
+
+    private Map<Long, Long> countOrders(List<Long> voucherIds) {
+        // select voucher_id, count(*) from tb_voucher_order where voucher_id in (...) group by voucher_id
+        List<Map<String, Object>> rows = voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS orders")
+                .in("voucher_id", voucherIds)
+                .groupBy("voucher_id"));
+        Map<Long, Long> counts = new HashMap<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("orders")).longValue());
+        }
+        return counts;
+    }
+
+    private SeckillDrift reconcile(SeckillVoucher voucher, long orders, boolean settled) {
+        Long voucherId = voucher.getVoucherId();
+        String stockKey = SECKILL_STOCK_KEY + voucherId;
+        String orderKey = SECKILL_ORDER_KEY + voucherId;
+        String infoKey = SECKILL_INFO_KEY + voucherId;
+        SeckillDrift drift = new SeckillDrift();
+        drift.setVoucherId(voucherId);
+        drift.setDbStock(voucher.getStock());
+        drift.setOrders(orders);
+        drift.setSettled(settled);
+        // 1.总库存，旧数据没有记录时以数据库为准
+        Object total = stringRedisTemplate.opsForHash().get(infoKey, "total");
+        int totalStock = total == null ? (int) (voucher.getStock() + orders) : Integer.parseInt((String) total);
+        drift.setTotal(totalStock);
+        drift.setOversold(orders > totalStock || voucher.getStock() < 0);
+        // 2.有订单的用户必须在已下单用户中，否则可以重复下单，随时可以补上
+        drift.setOrdersWithoutBuyer(checkOrders(voucherId, orderKey, drift));
+        // 3.已下单用户没有订单，说明下单失败或者还在队列中，秒杀结束后才能确定并移除
+        drift.setBuyersWithoutOrder(checkBuyers(voucherId, orderKey, settled, drift));
+        // 4.Redis库存 + 已下单用户数 = 总库存，由脚本原子地读取并修正
+        Long redisDrift = stringRedisTemplate.execute(RECONCILE_SCRIPT, Arrays.asList(stockKey, orderKey),
+                String.valueOf(totalStock), repair ? "1" : "0");
+        drift.setRedisStockDrift(redisDrift);
+        if (redisDrift != null && redisDrift != 0 && repair) {
+            drift.getActions().add("Redis库存修正" + (-redisDrift));
+        }
+        String stock = stringRedisTemplate.opsForValue().get(stockKey);
+        drift.setRedisStock(stock == null ? null : Integer.valueOf(stock));
+        drift.setBuyers(stringRedisTemplate.opsForSet().size(orderKey));
+        // 5.数据库库存 + 订单数 = 总库存，秒杀期间两次查询之间可能有新订单，结束后才检查
+        if (settled) {
+            int expected = (int) Math.max(totalStock - orders, 0);
+            drift.setDbStockDrift(voucher.getStock() - expected);
+            if (drift.getDbStockDrift() != 0 && repair) {
+                // 只在库存没有被其他人修改过时更新
+                int updated = seckillVoucherMapper.update(null, new UpdateWrapper<SeckillVoucher>()
+                        .set("stock", expected)
+                        .eq("voucher_id", voucherId)
+                        .eq("stock", voucher.getStock()));
+                if (updated > 0) {
+                    drift.getActions().add("数据库库存修正为" + expected);
+                }
+            }
+        }
+        if (drift.getOversold()) {
+            log.error("秒杀券{}超卖，总库存：{}，订单数：{}，数据库库存：{}", voucherId, totalStock, orders, voucher.getStock());
+        }
+        return drift;
+    }
+
+    /**
+     * 按id分批扫描订单，检查下单用户是否都在Redis已下单用户中
+     * @return 不在已下单用户中的订单数
+     */
+    private long checkOrders(Long voucherId, String orderKey, SeckillDrift drift) {
+        long missing = 0;
+        long lastId = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + RECONCILE_BATCH_SIZE));
+            if (orders.isEmpty()) {
+                break;
+            }
+            Object[] userIds = orders.stream().map(order -> order.getUserId().toString()).toArray();
+            Map<Object, Boolean> isMember = stringRedisTemplate.opsForSet().isMember(orderKey, userIds);
+            String[] absent = Arrays.stream(userIds)
+                    .filter(userId -> isMember == null || !Boolean.TRUE.equals(isMember.get(userId)))
+                    .toArray(String[]::new);
+            if (absent.length > 0) {
+                missing += absent.length;
+                if (repair) {
+                    stringRedisTemplate.opsForSet().add(orderKey, absent);
+                }
+            }
+            lastId = orders.get(orders.size() - 1).getId();
+            if (orders.size() < RECONCILE_BATCH_SIZE) {
+                break;
+            }
+        }
+        if (missing > 0 && repair) {
+            drift.getActions().add("补充已下单用户" + missing);
+        }
+        return missing;
+    }
+
+    /**
+     * SSCAN已下单用户，分批查询订单，检查是否都有订单
+     * @return 没有订单的用户数
+     */
+    private long checkBuyers(Long voucherId, String orderKey, boolean settled, SeckillDrift drift) {
+        long missing = 0;
+        List<String> lost = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().count(RECONCILE_BATCH_SIZE).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(orderKey, options)) {
+            List<String> batch = new ArrayList<>(RECONCILE_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == RECONCILE_BATCH_SIZE || !cursor.hasNext()) {
+                    List<String> absent = findBuyersWithoutOrder(voucherId, batch);
+                    missing += absent.size();
+                    // 扫描过程中不能修改集合，先记下，数量有上限
+                    if (settled && repair && lost.size() < RECONCILE_BATCH_SIZE) {
+                        lost.addAll(absent.subList(0, Math.min(absent.size(), RECONCILE_BATCH_SIZE - lost.size())));
+                    }
+                    batch.clear();
+                }
+            }
+        }
+        // 秒杀已结束，移除下单失败的用户，库存由脚本按已下单用户数修正，超出上限的下次对账继续处理
+        if (!lost.isEmpty()) {
+            stringRedisTemplate.opsForSet().remove(orderKey, lost.toArray());
+            drift.getActions().add("移除没有订单的已下单用户" + lost.size());
+        }
+        return missing;
+    }
+
+    private List<String> findBuyersWithoutOrder(Long voucherId, List<String> buyers) {
+        List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id")
+                .eq("voucher_id", voucherId)
+                .in("user_id", buyers));
+        Set<String> ordered = userIds.stream().map(String::valueOf).collect(Collectors.toSet());
+        return buyers.stream().filter(buyer -> !ordered.contains(buyer)).collect(Collectors.toList());
+    }
+
+    private static boolean isDrifted(SeckillDrift drift) {
+        return drift.getOversold()
+                || drift.getOrdersWithoutBuyer() > 0
+                // 秒杀期间没有订单的用户可能还在队列中，不算不一致
+                || (drift.getSettled() && drift.getBuyersWithoutOrder() > 0)
+                || (drift.getRedisStockDrift() != null && drift.getRedisStockDrift() != 0)
+                || (drift.getDbStockDrift() != null && drift.getDbStockDrift() != 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGE_TOPIC;
+
+/**
+ * 店铺修改事件，通过Redis发布订阅广播给所有节点（包括发布者自己），各节点增量更新进程内的店铺索引：
+ * ShopSpatialIndex、ShopSearchIndex、ShopSuggestTrie
+ * 消息为修改后的完整店铺数据；断线期间丢失的消息由各索引的定时全量重建补上
+ */
+@Slf4j
+@Component
+public class ShopChangeTopic {
+
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+    @Resource
+    private ShopSuggestTrie shopSuggestTrie;
+
+    private RTopic topic;
+    private int listenerId;
+
+    @PostConstruct
+    private void subscribe() {
+        topic = redissonClient.getTopic(SHOP_CHANGE_TOPIC, StringCodec.INSTANCE);
+        listenerId = topic.addListener(String.class, (channel, message) -> apply(message));
+    }
+
+    @PreDestroy
+    private void unsubscribe() {
+        topic.removeListener(listenerId);
+    }
+
+    /**
+     * 店铺写入数据库后发布
+     * @param shop 修改后的完整店铺数据
+     */
+    public void publish(Shop shop) {
+        topic.publish(JSONUtil.toJsonStr(shop));
+    }
+
+    private void apply(String message) {
+        try {
+            Shop shop = JSONUtil.toBean(message, Shop.class);
+            shopSpatialIndex.update(shop);
+            shopSearchIndex.update(shop);
+            shopSuggestTrie.update(shop);
+        } catch (Exception e) {
+            log.error("更新店铺索引失败：{}", message, e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 店铺地理位置索引，维护Redis中按类型划分的shop:geo:typeId
+ * 店铺新增、修改时增量更新，定时任务以数据库为准全量重建
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    // 重建索引时每批从数据库读取的店铺数量
+    private static final int REBUILD_BATCH_SIZE = 500;
+    private static final String TMP_SUFFIX = ":tmp";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    /**
+     * 店铺写入后更新索引
+     * @param old 修改前的店铺，新增时为null
+     * @param shop 修改后的店铺
+     */
+    public void update(Shop old, Shop shop) {
+        String member = shop.getId().toString();
+        // 1.类型变化或坐标被清空，从原来的索引中删除
+        if (old != null && old.getTypeId() != null
+                && (!old.getTypeId().equals(shop.getTypeId()) || !hasLocation(shop))) {
+            remove(SHOP_GEO_KEY + old.getTypeId(), member);
+        }
+        // 2.写入新的位置  geoadd shop:geo:typeId x y shopId
+        if (shop.getTypeId() != null && hasLocation(shop)) {
+            Point point = new Point(shop.getX(), shop.getY());
+            String key = SHOP_GEO_KEY + shop.getTypeId();
+            stringRedisTemplate.opsForGeo().add(key, point, member);
+            // 正在重建时同时写入临时key，避免RENAME覆盖本次修改
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key + TMP_SUFFIX))) {
+                stringRedisTemplate.opsForGeo().add(key + TMP_SUFFIX, point, member);
+            }
+        }
+    }
+
+    private void remove(String key, String member) {
+        stringRedisTemplate.opsForZSet().remove(key, member);
+        stringRedisTemplate.opsForZSet().remove(key + TMP_SUFFIX, member);
+    }
+
+    /**
+     * 按id分批读取tb_shop，按类型写入临时key，最后逐个RENAME覆盖正式索引
+     * 用于纠正增量更新丢失造成的偏差，以及清理已删除的店铺
+     * @return 索引中的店铺数量
+     */
+    public long rebuild() {
+        // 1.清理上次失败遗留的临时key
+        List<ShopType> types = shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"));
+        for (ShopType type : types) {
+            stringRedisTemplate.delete(SHOP_GEO_KEY + type.getId() + TMP_SUFFIX);
+        }
+        // 2.分批写入临时key
+        Set<Long> typeIds = new HashSet<>();
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + REBUILD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null || !hasLocation(shop)) {
+                        continue;
+                    }
+                    conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId() + TMP_SUFFIX,
+                            new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                }
+                return null;
+            });
+            for (Shop shop : shops) {
+                if (shop.getTypeId() != null && hasLocation(shop)) {
+                    typeIds.add(shop.getTypeId());
+                    count++;
+                }
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 3.RENAME覆盖正式索引，没有店铺的类型直接删除
+        for (Long typeId : typeIds) {
+            stringRedisTemplate.rename(SHOP_GEO_KEY + typeId + TMP_SUFFIX, SHOP_GEO_KEY + typeId);
+        }
+        for (ShopType type : types) {
+            if (!typeIds.contains(type.getId())) {
+                stringRedisTemplate.delete(SHOP_GEO_KEY + type.getId());
+            }
+        }
+        log.debug("店铺地理位置索引重建完成，共{}家", count);
+        return count;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getX() != null && shop.getY() != null;
+    }
+}
@@ -0,0 +1,335 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的店铺名称倒排索引，替代 LIKE '%name%' 的全表扫描
+ * 中文按单字和相邻两字切分，字母数字按单词切分并索引单词中所有长度不超过MAX_GRAM的子串（n-gram），
+ * 查询词的每个片段一定是名称中某个单词的子串，因此和 LIKE '%name%' 的结果一致；
+ * 查询时先用倒排表求交集得到候选，再校验名称确实包含关键字
+ * 倒排表为不可变的有序数组，修改时复制后整体替换，查询不需要加锁；启动后从数据库全量构建，店铺修改时由ShopChangeTopic通知所有节点增量更新
+ */
+@Slf4j
+@Component
+public class ShopSearchIndex {
+
+    // 单词中索引的子串最大长度，更长的查询词使用它的所有MAX_GRAM长度的子串筛选候选，再由名称校验
+    private static final int MAX_GRAM = 3;
+    // 名称完全相同、以关键字开头、包含关键字的相关度，相关度相同时按人气排序
+    private static final long RELEVANCE_WEIGHT = 1_000_000_000_000L;
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private volatile Map<Long, Doc> docs = new ConcurrentHashMap<>();
+    private volatile Map<String, long[]> postings = new ConcurrentHashMap<>();
+    private volatile boolean warm;
+    private boolean rebuilding;
+    private final List<Shop> pending = new ArrayList<>();
+
+    private static class Doc {
+        final long id;
+        final String name;
+        final Long typeId;
+        final String area;
+        final long popularity;
+
+        Doc(Shop shop) {
+            this.id = shop.getId();
+            this.name = normalize(shop.getName());
+            this.typeId = shop.getTypeId();
+            this.area = shop.getArea();
+            this.popularity = popularity(shop);
+        }
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * 关键字是否可以使用索引查询，只包含标点、空格等不建索引的字符时只能使用 LIKE 查询
+     * @param keyword
+     * @return
+     */
+    public boolean isSearchable(String keyword) {
+        return warm && !tokenize(normalize(keyword), false).isEmpty();
+    }
+
+    /**
+     * 店铺人气，用于排序
+     */
+    public static long popularity(Shop shop) {
+        return (shop.getSold() == null ? 0 : shop.getSold()) + (shop.getComments() == null ? 0 : shop.getComments());
+    }
+
+    /**
+     * 搜索名称包含关键字的店铺，按相关度、人气、id倒序排列
+     * @param keyword 关键字
+     * @param typeId 店铺类型，为null时不过滤
+     * @param area 商圈，为空时不过滤
+     * @param cursor 上一页最后一条的排序分数和id，首页为null
+     * @param limit 最多返回的数量
+     * @return 店铺id和排序分数，依次排列
+     */
+    public List<ScrollCursor> search(String keyword, Long typeId, String area, ScrollCursor cursor, int limit) {
+        String query = normalize(keyword);
+        Set<String> tokens = tokenize(query, false);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.按长度升序取出倒排表，从最短的开始求交集
+        Map<String, long[]> postings = this.postings;
+        List<long[]> lists = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            long[] ids = postings.get(token);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        // 2.校验候选，计算排序分数，小顶堆中只保留排在最前面的limit个
+        Map<Long, Doc> docs = this.docs;
+        Comparator<ScrollCursor> order = Comparator.comparingLong(ScrollCursor::getScore)
+                .thenComparingLong(ScrollCursor::getLastId);
+        PriorityQueue<ScrollCursor> hits = new PriorityQueue<>(Math.min(limit, 64) + 1, order);
+        long[] shortest = lists.get(0);
+        // 候选按id升序，其余倒排表只需从上次的位置向后查找
+        int[] positions = new int[lists.size()];
+        candidate:
+        for (long id : shortest) {
+            for (int i = 1; i < lists.size(); i++) {
+                long[] ids = lists.get(i);
+                positions[i] = advance(ids, positions[i], id);
+                if (positions[i] >= ids.length) {
+                    break candidate;
+                }
+                if (ids[positions[i]] != id) {
+                    continue candidate;
+                }
+            }
+            Doc doc = docs.get(id);
+            if (doc == null || !doc.name.contains(query)
+                    || (typeId != null && !typeId.equals(doc.typeId))
+                    || (StrUtil.isNotBlank(area) && !area.equals(doc.area))) {
+                continue;
+            }
+            long relevance = doc.name.equals(query) ? 3 : doc.name.startsWith(query) ? 2 : 1;
+            long score = relevance * RELEVANCE_WEIGHT + doc.popularity;
+            // 3.按游标跳过已经返回的数据
+            if (cursor != null && (score > cursor.getScore()
+                    || (score == cursor.getScore() && id >= cursor.getLastId()))) {
+                continue;
+            }
+            if (hits.size() >= limit) {
+                ScrollCursor min = hits.peek();
+                if (score < min.getScore() || (score == min.getScore() && id < min.getLastId())) {
+                    continue;
+                }
+                hits.poll();
+            }
+            hits.add(new ScrollCursor(score, 0, id));
+        }
+        List<ScrollCursor> result = new ArrayList<>(hits);
+        result.sort(order.reversed());
+        return result;
+    }
+
+    /**
+     * 从from开始按1、2、4...的步长向后跳，再在最后一步的区间内二分查找
+     * @return 第一个不小于id的位置，都小于id时返回数组长度
+     */
+    private static int advance(long[] ids, int from, long id) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < ids.length && ids[high] < id) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, ids.length);
+        int index = Arrays.binarySearch(ids, low, high, id);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * 收到店铺修改事件后增量更新索引，正在重建时记录下来，重建完成后重放
+     * @param shop 修改后的完整店铺数据
+     */
+    public synchronized void update(Shop shop) {
+        if (rebuilding) {
+            pending.add(shop);
+        }
+        apply(docs, postings, shop);
+    }
+
+    /**
+     * 按id分批读取tb_shop，在新的索引中构建完成后整体替换
+     * @return 索引中的店铺数量
+     */
+    public long rebuild() {
+        synchronized (this) {
+            rebuilding = true;
+            pending.clear();
+        }
+        try {
+            // 1.先收集每个词对应的店铺id，最后一次性生成有序数组
+            Map<Long, Doc> newDocs = new ConcurrentHashMap<>();
+            Map<String, List<Long>> grouped = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "type_id", "area", "sold", "comments")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + REBUILD_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    Doc doc = new Doc(shop);
+                    newDocs.put(doc.id, doc);
+                    for (String token : tokenize(doc.name, true)) {
+                        grouped.computeIfAbsent(token, k -> new ArrayList<>()).add(doc.id);
+                    }
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 按id升序读取，列表本身已经有序
+            Map<String, long[]> newPostings = new ConcurrentHashMap<>(grouped.size());
+            grouped.forEach((token, ids) -> newPostings.put(token, ids.stream().mapToLong(Long::longValue).toArray()));
+            // 2.重放重建期间的修改，替换索引
+            synchronized (this) {
+                for (Shop shop : pending) {
+                    apply(newDocs, newPostings, shop);
+                }
+                docs = newDocs;
+                postings = newPostings;
+                warm = true;
+            }
+            log.debug("店铺搜索索引重建完成，共{}家，{}个词", newDocs.size(), newPostings.size());
+            return newDocs.size();
+        } finally {
+            synchronized (this) {
+                rebuilding = false;
+                pending.clear();
+            }
+        }
+    }
+
+    private static void apply(Map<Long, Doc> docs, Map<String, long[]> postings, Shop shop) {
+        long id = shop.getId();
+        // 1.从原来的倒排表中删除
+        Doc old = docs.remove(id);
+        if (old != null) {
+            for (String token : tokenize(old.name, true)) {
+                long[] ids = postings.get(token);
+                int index = ids == null ? -1 : Arrays.binarySearch(ids, id);
+                if (index < 0) {
+                    continue;
+                }
+                if (ids.length == 1) {
+                    postings.remove(token);
+                    continue;
+                }
+                long[] removed = new long[ids.length - 1];
+                System.arraycopy(ids, 0, removed, 0, index);
+                System.arraycopy(ids, index + 1, removed, index, ids.length - index - 1);
+                postings.put(token, removed);
+            }
+        }
+        // 2.插入新的倒排表，保持有序
+        Doc doc = new Doc(shop);
+        docs.put(id, doc);
+        for (String token : tokenize(doc.name, true)) {
+            long[] ids = postings.getOrDefault(token, new long[0]);
+            int index = Arrays.binarySearch(ids, id);
+            if (index >= 0) {
+                continue;
+            }
+            index = -index - 1;
+            long[] added = new long[ids.length + 1];
+            System.arraycopy(ids, 0, added, 0, index);
+            added[index] = id;
+            System.arraycopy(ids, index, added, index + 1, ids.length - index);
+            postings.put(token, added);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase();
+    }
+
+    /**
+     * 切词：中文取单字和相邻两字；字母数字按单词切分，建索引时写入单词中所有长度1~MAX_GRAM的子串，
+     * 查询时不超过MAX_GRAM的单词使用单词本身，更长的使用它所有长度为MAX_GRAM的子串
+     * @param text 已经标准化的文本
+     * @param indexing 是否为建索引
+     */
+    private static Set<String> tokenize(String text, boolean indexing) {
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        char prev = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c) && c < 128) {
+                word.append(c);
+                prev = 0;
+                continue;
+            }
+            if (word.length() > 0) {
+                addWord(tokens, word.toString(), indexing);
+                word.setLength(0);
+            }
+            if (!Character.isLetterOrDigit(c)) {
+                prev = 0;
+                continue;
+            }
+            // 中文：建索引时写入单字和两字，查询时有两字就只用两字
+            if (indexing || i + 1 >= text.length() || !isCjk(text.charAt(i + 1))) {
+                if (indexing || prev == 0) {
+                    tokens.add(String.valueOf(c));
+                }
+            }
+            if (prev != 0) {
+                tokens.add("" + prev + c);
+            }
+            prev = c;
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(char c) {
+        return Character.isLetterOrDigit(c) && c >= 128;
+    }
+
+    private static void addWord(Set<String> tokens, String word, boolean indexing) {
+        if (!indexing) {
+            if (word.length() <= MAX_GRAM) {
+                tokens.add(word);
+                return;
+            }
+            for (int i = 0; i + MAX_GRAM <= word.length(); i++) {
+                tokens.add(word.substring(i, i + MAX_GRAM));
+            }
+            return;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            for (int len = 1; len <= MAX_GRAM && i + len <= word.length(); len++) {
+                tokens.add(word.substring(i, i + len));
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的店铺空间索引，可替代Redis GEO查询附近店铺
+ * 按类型、按CELL_DEGREES大小的经纬度网格分桶，每个桶保存店铺id和坐标的基本类型数组，查询时只遍历半径覆盖的网格
+ * 桶数组不可变，修改时复制后整体替换，查询不需要加锁；定时从数据库全量重建，店铺修改时由ShopChangeTopic通知所有节点增量更新
+ */
+@Slf4j
+@Component
+public class ShopSpatialIndex {
+
+    // Redis GEO使用的地球半径（m）
+    private static final double EARTH_RADIUS = 6372797.560856;
+    // 每纬度对应的距离（m）
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+    // 网格大小（度），约1km
+    private static final double CELL_DEGREES = 0.01;
+    // 重建索引时每批从数据库读取的店铺数量
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    @Value("${hmdp.shop.local-geo-index:false}")
+    private boolean enabled;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 类型id -> 网格 -> 桶
+    private volatile Map<Long, Map<Long, Bucket>> index = new ConcurrentHashMap<>();
+    // 店铺id -> 所在的类型和网格，用于增量更新时找到原来的桶
+    private volatile Map<Long, long[]> locations = new ConcurrentHashMap<>();
+    private volatile boolean warm;
+    private boolean rebuilding;
+    private final List<Shop> pending = new ArrayList<>();
+
+    private static class Bucket {
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+
+        Bucket(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否可以使用本地索引查询，未开启或尚未完成首次加载时返回false，由调用方回退到Redis GEO
+     */
+    public boolean isWarm() {
+        return enabled && warm;
+    }
+
+    /**
+     * 查询半径内距离最近的店铺
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径（m）
+     * @param limit 最多返回的数量
+     * @return 按距离升序排列的店铺id
+     */
+    public List<Long> search(Long typeId, double x, double y, double radius, int limit) {
+        Map<Long, Bucket> cells = index.get(typeId);
+        if (cells == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 1.计算半径覆盖的网格范围
+        double dy = radius / METERS_PER_DEGREE;
+        double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 0.01);
+        long minCellX = cell(x - dx), maxCellX = cell(x + dx);
+        long minCellY = cell(y - dy), maxCellY = cell(y + dy);
+        // 2.遍历网格中的店铺，保留半径内的
+        int size = 0;
+        long[] ids = new long[64];
+        double[] distances = new double[64];
+        for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Bucket bucket = cells.get(cellKey(cellX, cellY));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.ids.length; i++) {
+                    double distance = distance(x, y, bucket.xs[i], bucket.ys[i]);
+                    if (distance > radius) {
+                        continue;
+                    }
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                        distances = Arrays.copyOf(distances, size * 2);
+                    }
+                    ids[size] = bucket.ids[i];
+                    distances[size] = distance;
+                    size++;
+                }
+            }
+        }
+        // 3.按距离排序，取前limit个
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        double[] finalDistances = distances;
+        Arrays.sort(order, (a, b) -> Double.compare(finalDistances[a], finalDistances[b]));
+        List<Long> result = new ArrayList<>(Math.min(size, limit));
+        for (int i = 0; i < size && i < limit; i++) {
+            result.add(ids[order[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * 收到店铺修改事件后增量更新索引，正在重建时记录下来，重建完成后重放
+     * @param shop 修改后的店铺
+     */
+    public synchronized void update(Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        if (rebuilding) {
+            pending.add(shop);
+        }
+        apply(index, locations, shop);
+    }
+
+    /**
+     * 按id分批读取tb_shop，在新的索引中构建完成后整体替换
+     * @return 索引中的店铺数量
+     */
+    public long rebuild() {
+        synchronized (this) {
+            rebuilding = true;
+            pending.clear();
+        }
+        try {
+            // 1.先按类型、网格收集，最后一次性生成桶数组
+            Map<Long, Map<Long, List<Shop>>> grouped = new HashMap<>();
+            long lastId = 0;
+            long count = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + REBUILD_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                        continue;
+                    }
+                    grouped.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                            .computeIfAbsent(cellKey(cell(shop.getX()), cell(shop.getY())), k -> new ArrayList<>())
+                            .add(shop);
+                    count++;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            Map<Long, Map<Long, Bucket>> newIndex = new ConcurrentHashMap<>();
+            Map<Long, long[]> newLocations = new ConcurrentHashMap<>();
+            grouped.forEach((typeId, cells) -> {
+                Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+                cells.forEach((cellKey, shops) -> {
+                    long[] ids = new long[shops.size()];
+                    double[] xs = new double[shops.size()];
+                    double[] ys = new double[shops.size()];
+                    for (int i = 0; i < shops.size(); i++) {
+                        Shop shop = shops.get(i);
+                        ids[i] = shop.getId();
+                        xs[i] = shop.getX();
+                        ys[i] = shop.getY();
+                        newLocations.put(shop.getId(), new long[]{typeId, cellKey});
+                    }
+                    buckets.put(cellKey, new Bucket(ids, xs, ys));
+                });
+                newIndex.put(typeId, buckets);
+            });
+            // 2.重放重建期间的修改，替换索引
+            synchronized (this) {
+                for (Shop shop : pending) {
+                    apply(newIndex, newLocations, shop);
+                }
+                index = newIndex;
+                locations = newLocations;
+                warm = true;
+            }
+            log.debug("本地店铺空间索引重建完成，共{}家", count);
+            return count;
+        } finally {
+            synchronized (this) {
+                rebuilding = false;
+                pending.clear();
+            }
+        }
+    }
+
+    private static void apply(Map<Long, Map<Long, Bucket>> index, Map<Long, long[]> locations, Shop shop) {
+        long id = shop.getId();
+        // 1.从原来的桶中删除
+        long[] location = locations.remove(id);
+        if (location != null) {
+            Map<Long, Bucket> cells = index.get(location[0]);
+            Bucket bucket = cells == null ? null : cells.get(location[1]);
+            if (bucket != null) {
+                Bucket removed = without(bucket, id);
+                if (removed.ids.length == 0) {
+                    cells.remove(location[1]);
+                } else {
+                    cells.put(location[1], removed);
+                }
+            }
+        }
+        // 2.加入新的桶
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        long cellKey = cellKey(cell(shop.getX()), cell(shop.getY()));
+        Map<Long, Bucket> cells = index.computeIfAbsent(shop.getTypeId(), k -> new ConcurrentHashMap<>());
+        Bucket bucket = cells.get(cellKey);
+        int size = bucket == null ? 0 : bucket.ids.length;
+        long[] ids = bucket == null ? new long[1] : Arrays.copyOf(bucket.ids, size + 1);
+        double[] xs = bucket == null ? new double[1] : Arrays.copyOf(bucket.xs, size + 1);
+        double[] ys = bucket == null ? new double[1] : Arrays.copyOf(bucket.ys, size + 1);
+        ids[size] = id;
+        xs[size] = shop.getX();
+        ys[size] = shop.getY();
+        cells.put(cellKey, new Bucket(ids, xs, ys));
+        locations.put(id, new long[]{shop.getTypeId(), cellKey});
+    }
+
+    private static Bucket without(Bucket bucket, long id) {
+        int size = bucket.ids.length;
+        long[] ids = new long[size];
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (bucket.ids[i] == id) {
+                continue;
+            }
+            ids[n] = bucket.ids[i];
+            xs[n] = bucket.xs[i];
+            ys[n] = bucket.ys[i];
+            n++;
+        }
+        return new Bucket(Arrays.copyOf(ids, n), Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+    }
+
+    private static long cell(double degrees) {
+        return (long) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(long cellX, long cellY) {
+        return (cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    /**
+     * 两个经纬度之间的球面距离（m），与Redis GEO的计算方式一致
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+}
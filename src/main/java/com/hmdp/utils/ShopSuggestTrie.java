@@ -0,0 +1,387 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 店铺名称和商圈的输入联想，基于前缀树，每个节点保存以该前缀开头的人气最高的SUGGEST_TOP_K个补全
+ * 构建完成后压缩为按层序排列的基本类型数组，同一节点的子节点连续存放、按字符有序，查询时逐字二分查找，不访问MySQL和Redis
+ * 店铺修改时由ShopChangeTopic通知所有节点增量更新：已有补全词的人气直接写入前缀树，并沿路径自底向上重新计算topK；
+ * 新出现的补全词先放在一个小的附加表中，查询时一起合并，由定时任务合并进前缀树
+ */
+@Slf4j
+@Component
+public class ShopSuggestTrie {
+
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 以下字段在synchronized中修改：店铺id -> 名称、商圈、人气，补全词 -> 人气汇总
+    private Map<Long, Shop> shops = new HashMap<>();
+    private Map<String, Term> terms = new HashMap<>();
+    private boolean rebuilding;
+    private final List<Shop> pending = new ArrayList<>();
+
+    private volatile Snapshot snapshot;
+    // 前缀树中还没有的补全词，值不可变，修改时整体替换
+    private final Map<String, Term> extra = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * 补全词，人气为使用该名称、商圈的店铺人气之和
+     */
+    private static class Term {
+        final String text;
+        long weight;
+        int refs;
+
+        Term(String text, long weight) {
+            this.text = text;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 压缩后的前缀树，节点0为根节点
+     * 节点的topK在tops中占用的位置在构建时确定，weights中人气为-1的补全词已经没有店铺使用
+     */
+    private static class Snapshot {
+        char[] labels;
+        int[] childStart;
+        int[] childCount;
+        int[] topStart;
+        byte[] topCount;
+        int[] tops;
+        int[] nodeTerm;
+        String[] keys;
+        String[] texts;
+        long[] weights;
+
+        int topCapacity(int node) {
+            return (node + 1 < topStart.length ? topStart[node + 1] : tops.length) - topStart[node];
+        }
+
+        int compare(int a, int b) {
+            int c = Long.compare(weights[b], weights[a]);
+            return c != 0 ? c : keys[a].compareTo(keys[b]);
+        }
+    }
+
+    /**
+     * 构建时使用的节点
+     */
+    private static class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        final int[] top = new int[SystemConstants.SUGGEST_TOP_K];
+        int topCount;
+        int term = -1;
+        int index;
+    }
+
+    /**
+     * 查询以prefix开头的补全，按人气降序
+     * @param prefix 前缀，忽略大小写
+     * @param count 最多返回的数量，不超过SUGGEST_TOP_K
+     * @return
+     */
+    public List<String> suggest(String prefix, int count) {
+        Snapshot s = snapshot;
+        String key = StrUtil.isBlank(prefix) ? "" : prefix.trim().toLowerCase();
+        if (s == null || key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.节点上保存的就是前缀的topK，增量更新时可能读到一半，按补全词去重
+        List<String> keys = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        int node = find(s, key);
+        if (node > 0) {
+            int n = s.topCount[node];
+            for (int i = 0; i < n; i++) {
+                int term = s.tops[s.topStart[node] + i];
+                long weight = s.weights[term];
+                if (weight >= 0 && !keys.contains(s.keys[term])) {
+                    keys.add(s.keys[term]);
+                    texts.add(s.texts[term]);
+                    weights.add(weight);
+                }
+            }
+        }
+        // 2.合并还没有进入前缀树的补全词
+        for (Map.Entry<String, Term> entry : extra.entrySet()) {
+            if (entry.getKey().startsWith(key) && !keys.contains(entry.getKey())) {
+                keys.add(entry.getKey());
+                texts.add(entry.getValue().text);
+                weights.add(entry.getValue().weight);
+            }
+        }
+        // 3.按人气降序取前count个
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(weights.get(b), weights.get(a));
+            return c != 0 ? c : keys.get(a).compareTo(keys.get(b));
+        });
+        int n = Math.min(count, order.length);
+        List<String> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(texts.get(order[i]));
+        }
+        return result;
+    }
+
+    /**
+     * 收到店铺修改事件后增量更新，正在重建时记录下来，重建完成后重放
+     * @param shop 修改后的完整店铺数据
+     */
+    public synchronized void update(Shop shop) {
+        if (rebuilding) {
+            pending.add(shop);
+        }
+        for (String key : apply(shops, terms, shop)) {
+            publish(key, terms.get(key));
+        }
+    }
+
+    /**
+     * 有新的补全词时，在内存中重新构建前缀树，合并附加表
+     */
+    public synchronized void refreshIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        snapshot = build(terms);
+        extra.clear();
+    }
+
+    /**
+     * 按id分批读取tb_shop，在新的数据上构建完成后整体替换，并重放加载期间的修改
+     * @return 补全词数量
+     */
+    public int reload() {
+        synchronized (this) {
+            rebuilding = true;
+            pending.clear();
+        }
+        try {
+            // 1.从数据库加载
+            Map<Long, Shop> newShops = new HashMap<>();
+            Map<String, Term> newTerms = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> list = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "area", "sold", "comments")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + REBUILD_BATCH_SIZE));
+                if (list.isEmpty()) {
+                    break;
+                }
+                list.forEach(shop -> apply(newShops, newTerms, shop));
+                lastId = list.get(list.size() - 1).getId();
+            }
+            // 2.重放加载期间的修改，替换数据和前缀树
+            synchronized (this) {
+                for (Shop shop : pending) {
+                    apply(newShops, newTerms, shop);
+                }
+                shops = newShops;
+                terms = newTerms;
+                Snapshot s = build(newTerms);
+                snapshot = s;
+                extra.clear();
+                dirty = false;
+                log.debug("店铺输入联想重建完成，共{}个补全词，{}个节点", s.texts.length, s.labels.length);
+                return s.texts.length;
+            }
+        } finally {
+            synchronized (this) {
+                rebuilding = false;
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * 用新的店铺数据替换旧的，更新补全词的人气汇总
+     * @return 人气有变化的补全词
+     */
+    private static Set<String> apply(Map<Long, Shop> shops, Map<String, Term> terms, Shop shop) {
+        Shop current = lite(shop);
+        Shop old = shops.put(current.getId(), current);
+        Set<String> changed = new LinkedHashSet<>();
+        if (old != null) {
+            count(terms, old, -1, changed);
+        }
+        count(terms, current, 1, changed);
+        return changed;
+    }
+
+    private static void count(Map<String, Term> terms, Shop shop, int sign, Set<String> changed) {
+        long popularity = ShopSearchIndex.popularity(shop);
+        for (String text : new String[]{shop.getName(), shop.getArea()}) {
+            if (StrUtil.isBlank(text)) {
+                continue;
+            }
+            String key = text.trim().toLowerCase();
+            Term term = terms.computeIfAbsent(key, k -> new Term(text.trim(), 0));
+            term.weight += sign * popularity;
+            term.refs += sign;
+            if (term.refs <= 0) {
+                terms.remove(key);
+            }
+            changed.add(key);
+        }
+    }
+
+    /**
+     * 把补全词的最新人气写入前缀树，term为null表示已经没有店铺使用；调用方持有锁
+     */
+    private void publish(String key, Term term) {
+        Snapshot s = snapshot;
+        int node = s == null ? -1 : find(s, key);
+        int index = node > 0 ? s.nodeTerm[node] : -1;
+        // 1.前缀树中没有的补全词放入附加表，等待定时任务合并
+        if (index < 0) {
+            if (term == null) {
+                extra.remove(key);
+            } else {
+                extra.put(key, new Term(term.text, term.weight));
+                dirty = true;
+            }
+            return;
+        }
+        // 2.更新人气，从补全词所在节点到根节点逐个重新计算topK
+        s.weights[index] = term == null ? -1 : term.weight;
+        int[] path = new int[key.length()];
+        node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            int from = s.childStart[node];
+            node = Arrays.binarySearch(s.labels, from, from + s.childCount[node], key.charAt(i));
+            path[i] = node;
+        }
+        for (int i = path.length - 1; i >= 0; i--) {
+            recomputeTop(s, path[i]);
+        }
+    }
+
+    /**
+     * 节点的topK = 自身的补全词和所有子节点topK合并后的前SUGGEST_TOP_K个
+     */
+    private static void recomputeTop(Snapshot s, int node) {
+        List<Integer> candidates = new ArrayList<>();
+        int own = s.nodeTerm[node];
+        if (own >= 0 && s.weights[own] >= 0) {
+            candidates.add(own);
+        }
+        int from = s.childStart[node];
+        for (int child = from; child < from + s.childCount[node]; child++) {
+            for (int i = 0; i < s.topCount[child]; i++) {
+                candidates.add(s.tops[s.topStart[child] + i]);
+            }
+        }
+        candidates.sort(s::compare);
+        int n = Math.min(s.topCapacity(node), candidates.size());
+        for (int i = 0; i < n; i++) {
+            s.tops[s.topStart[node] + i] = candidates.get(i);
+        }
+        s.topCount[node] = (byte) n;
+    }
+
+    /**
+     * 逐字查找前缀对应的节点
+     * @return 节点编号，不存在时返回-1
+     */
+    private static int find(Snapshot s, String key) {
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            int from = s.childStart[node];
+            int index = Arrays.binarySearch(s.labels, from, from + s.childCount[node], key.charAt(i));
+            if (index < 0) {
+                return -1;
+            }
+            node = index;
+        }
+        return node;
+    }
+
+    private static Shop lite(Shop shop) {
+        return new Shop().setId(shop.getId()).setName(shop.getName()).setArea(shop.getArea())
+                .setSold(shop.getSold()).setComments(shop.getComments());
+    }
+
+    private static Snapshot build(Map<String, Term> terms) {
+        // 1.补全词按人气降序排列：名称为店铺人气，同名店铺、同一商圈的人气累加
+        List<String> keys = new ArrayList<>(terms.keySet());
+        keys.sort(Comparator.comparing((String key) -> terms.get(key).weight).reversed().thenComparing(key -> key));
+        // 2.按人气降序插入，每个节点最先插入的SUGGEST_TOP_K个就是该前缀的topK
+        Node root = new Node();
+        for (int term = 0; term < keys.size(); term++) {
+            String key = keys.get(term);
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+                if (node.topCount < node.top.length) {
+                    node.top[node.topCount++] = term;
+                }
+            }
+            node.term = term;
+        }
+        // 3.按层序编号，同一节点的子节点编号连续
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(root);
+        int tops = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            node.index = i;
+            tops += node.topCount;
+            nodes.addAll(node.children.values());
+        }
+        // 4.压缩为数组
+        Snapshot s = new Snapshot();
+        int size = nodes.size();
+        s.labels = new char[size];
+        s.childStart = new int[size];
+        s.childCount = new int[size];
+        s.topStart = new int[size];
+        s.topCount = new byte[size];
+        s.tops = new int[tops];
+        s.nodeTerm = new int[size];
+        s.keys = keys.toArray(new String[0]);
+        s.texts = new String[keys.size()];
+        s.weights = new long[keys.size()];
+        for (int term = 0; term < keys.size(); term++) {
+            Term t = terms.get(keys.get(term));
+            s.texts[term] = t.text;
+            s.weights[term] = t.weight;
+        }
+        int topIndex = 0;
+        for (Node node : nodes) {
+            int i = node.index;
+            s.childCount[i] = node.children.size();
+            s.childStart[i] = node.children.isEmpty() ? 0 : node.children.firstEntry().getValue().index;
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                s.labels[child.getValue().index] = child.getKey();
+            }
+            s.nodeTerm[i] = node.term;
+            s.topStart[i] = topIndex;
+            s.topCount[i] = (byte) node.topCount;
+            System.arraycopy(node.top, 0, s.tops, topIndex, node.topCount);
+            topIndex += node.topCount;
+        }
+        return s;
+    }
+}
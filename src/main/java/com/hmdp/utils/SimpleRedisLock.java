@@ -8,6 +8,7 @@ import org.springframework.data.redis.core.script.RedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SimpleRedisLock implements ILock {
     private String name;
@@ -21,6 +22,11 @@ public class SimpleRedisLock implements ILock {
 
     // UUID为不同tomcat服务器的id（不同的JVM进程）
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+    // 每次加锁的序号，锁的标识不再使用线程id：虚拟线程、异步回调中加锁和释放锁可能不在同一个线程
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    // 当前持有的锁标识，每次加锁都创建新的SimpleRedisLock
+    private volatile String owner;
 
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
 
@@ -36,11 +42,15 @@ public class SimpleRedisLock implements ILock {
      */
     @Override
     public boolean tryLock(long timeoutSec) {
-        // 获取value（当前线程标识：不同tomcat服务器id+线程id）
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
+        // 获取value（锁标识：不同tomcat服务器id+加锁序号）
+        String id = ID_PREFIX + SEQUENCE.incrementAndGet();
         // 获取锁
-        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX+name, threadId, timeoutSec, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(success);  // 避免自动拆箱出现空指针的风险
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX+name, id, timeoutSec, TimeUnit.SECONDS);
+        if(Boolean.TRUE.equals(success)){  // 避免自动拆箱出现空指针的风险
+            owner = id;
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -64,9 +74,13 @@ public class SimpleRedisLock implements ILock {
      */
     @Override
     public void unlock() {
-        // 获取锁中的标识
-        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(KEY_PREFIX+name),
-                ID_PREFIX+Thread.currentThread().getId());
+        String id = owner;
+        if(id == null){
+            return;
+        }
+        // 标识一致才删除
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(KEY_PREFIX+name), id);
+        owner = null;
 
     }
 }
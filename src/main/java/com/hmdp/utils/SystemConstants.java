@@ -5,7 +5,19 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int FEED_PAGE_SIZE = 2;
+    // 输入联想每个前缀保存的补全数量
+    public static final int SUGGEST_TOP_K = 10;
+    // 访客统计本地缓冲的最大访问数
+    public static final int UV_BUFFER_MAX = 100000;
 
     // 自己添加的部分
     public static final String TOKEN_HEADER = "authorization";
+
+    // 用户信息本地缓存容量与过期时间（ms）
+    public static final int USER_LOCAL_CACHE_SIZE = 10000;
+    public static final long USER_LOCAL_CACHE_TTL = 60 * 1000L;
+    // 博客本地缓存容量与过期时间（ms）
+    public static final int BLOG_LOCAL_CACHE_SIZE = 10000;
+    public static final long BLOG_LOCAL_CACHE_TTL = 60 * 1000L;
 }
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 统一创建线程池，启动参数-Dhmdp.virtual-threads=true且运行在JDK 21及以上时使用虚拟线程：
+ * 固定大小的线程池改为每个任务一个虚拟线程，并发数由数据库连接池、Redis连接限制，
+ * 项目按Java 8编译，虚拟线程相关的API通过反射调用。
+ * 线程池在类加载时创建，早于Spring读取配置文件，所以开关只能使用系统属性
+ */
+@Slf4j
+public class ThreadPools {
+
+    private static final ThreadFactory VIRTUAL_FACTORY = createVirtualFactory();
+
+    private ThreadPools() {
+    }
+
+    /**
+     * 是否开启了虚拟线程模式
+     * @return
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * 创建线程池，虚拟线程模式下每个任务一个虚拟线程
+     * @param nThreads 平台线程的数量
+     * @param name 线程名前缀
+     * @return
+     */
+    public static ExecutorService newFixedThreadPool(int nThreads, String name) {
+        if (isVirtual()) {
+            return newVirtualThreadPerTaskExecutor(name);
+        }
+        return Executors.newFixedThreadPool(nThreads, threadFactory(name));
+    }
+
+    /**
+     * 创建有界线程池，最多nThreads个线程、queueSize个排队任务，超出时交给handler处理；
+     * 虚拟线程模式下同样只创建nThreads个（虚拟）线程，限制并发数
+     * @param nThreads 线程数
+     * @param queueSize 排队任务数
+     * @param name 线程名前缀
+     * @param handler 拒绝策略
+     * @return
+     */
+    public static ThreadPoolExecutor newBoundedThreadPool(int nThreads, int queueSize, String name,
+                                                          RejectedExecutionHandler handler) {
+        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory(name), handler);
+    }
+
+    /**
+     * 每个任务一个虚拟线程的线程池，未开启虚拟线程模式时返回null
+     * @param name 线程名前缀
+     * @return
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        if (!isVirtual()) {
+            return null;
+        }
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, namedFactory(VIRTUAL_FACTORY, name));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程池失败", e);
+        }
+    }
+
+    /**
+     * 线程工厂，虚拟线程模式下创建虚拟线程，否则创建平台线程
+     * @param name 线程名前缀
+     * @return
+     */
+    public static ThreadFactory threadFactory(String name) {
+        return namedFactory(isVirtual() ? VIRTUAL_FACTORY : Executors.defaultThreadFactory(), name);
+    }
+
+    private static ThreadFactory namedFactory(ThreadFactory delegate, String name) {
+        AtomicInteger index = new AtomicInteger();
+        return runnable -> {
+            Thread thread = delegate.newThread(runnable);
+            thread.setName(name + index.incrementAndGet());
+            return thread;
+        };
+    }
+
+    private static ThreadFactory createVirtualFactory() {
+        if (!Boolean.getBoolean("hmdp.virtual-threads")) {
+            return null;
+        }
+        try {
+            // Thread.ofVirtual().factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            log.info("已开启虚拟线程模式");
+            return factory;
+        } catch (ReflectiveOperationException e) {
+            log.warn("当前JDK不支持虚拟线程，使用平台线程：{}", System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
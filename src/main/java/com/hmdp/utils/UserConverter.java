@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * User与UserDTO之间的转换，手写字段拷贝，代替BeanUtil.copyProperties的反射拷贝
+ */
+public class UserConverter {
+
+    public static UserDTO toUserDTO(User user) {
+        if (user == null) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
+
+    /**
+     * 拷贝UserDTO，缓存中的对象不直接交给调用方，防止被修改
+     * @param userDTO
+     * @return
+     */
+    public static UserDTO copy(UserDTO userDTO) {
+        if (userDTO == null) {
+            return null;
+        }
+        UserDTO copy = new UserDTO();
+        copy.setId(userDTO.getId());
+        copy.setNickName(userDTO.getNickName());
+        copy.setIcon(userDTO.getIcon());
+        return copy;
+    }
+
+    /**
+     * 将UserDTO转为登录token的Hash结构，所有value均为String，空值不写入
+     * @param userDTO
+     * @return
+     */
+    public static Map<String, Object> toUserMap(UserDTO userDTO) {
+        Map<String, Object> userMap = new HashMap<>(4);
+        if (userDTO.getId() != null) {
+            userMap.put("id", userDTO.getId().toString());
+        }
+        if (userDTO.getNickName() != null) {
+            userMap.put("nickName", userDTO.getNickName());
+        }
+        if (userDTO.getIcon() != null) {
+            userMap.put("icon", userDTO.getIcon());
+        }
+        return userMap;
+    }
+}
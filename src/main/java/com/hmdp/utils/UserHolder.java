@@ -2,6 +2,8 @@ package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
 
+import java.util.function.Supplier;
+
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
@@ -16,4 +18,43 @@ public class UserHolder {
     public static void removeUser(){
         tl.remove();
     }
+
+    /**
+     * 把当前用户传递给在其他线程（线程池、虚拟线程）执行的任务，执行完后恢复该线程原来的用户
+     * @param task
+     * @return
+     */
+    public static Runnable wrap(Runnable task){
+        UserDTO user = tl.get();
+        return () -> {
+            UserDTO previous = tl.get();
+            tl.set(user);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> supplier){
+        UserDTO user = tl.get();
+        return () -> {
+            UserDTO previous = tl.get();
+            tl.set(user);
+            try {
+                return supplier.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(UserDTO previous){
+        if(previous == null){
+            tl.remove();
+        }else{
+            tl.set(previous);
+        }
+    }
 }
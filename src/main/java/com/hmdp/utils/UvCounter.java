@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺、博客的独立访客统计，基于HyperLogLog，内存占用与访客数无关
+ * 访问记录先在本地按key去重缓冲，由UvFlushJob定时用pipeline批量PFADD到 uv:类型:id:yyyyMMdd 和 uv:类型:id:total
+ * 写入时整体替换缓冲，等正在写旧缓冲的线程结束后再读取，访问既不会丢失也不会重复计数
+ */
+@Slf4j
+@Component
+public class UvCounter {
+
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_BLOG = "blog";
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String TOTAL = "total";
+    private static final int WEEK_DAYS = 7;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final AtomicReference<Buffer> buffer = new AtomicReference<>(new Buffer());
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    /**
+     * 一批待写入的访问，size为其中的访客数，writers为正在写入的线程数
+     */
+    private static class Buffer {
+        // uv:类型:id:yyyyMMdd -> 访客
+        final Map<String, Set<String>> visitors = new ConcurrentHashMap<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger writers = new AtomicInteger();
+    }
+
+    /**
+     * 访客标识，已登录用户使用用户id，否则使用ip
+     */
+    public static String visitorOf(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        return user != null ? user.getId().toString() : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * 记录一次访问，只写入本地缓冲；缓冲已满时丢弃，避免Redis故障时占满内存
+     * @param type TYPE_SHOP或TYPE_BLOG
+     * @param id 店铺或博客id
+     * @param visitor 访客标识
+     */
+    public void record(String type, Long id, String visitor) {
+        String key = UV_KEY + type + ":" + id + ":" + LocalDate.now().format(DAY_FORMATTER);
+        // 1.登记为写入线程后确认缓冲没有被替换，否则flush可能已经读完这批数据
+        Buffer current;
+        while (true) {
+            current = buffer.get();
+            current.writers.incrementAndGet();
+            if (buffer.get() == current) {
+                break;
+            }
+            current.writers.decrementAndGet();
+        }
+        // 2.写入缓冲
+        try {
+            if (current.size.get() >= SystemConstants.UV_BUFFER_MAX) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (current.visitors.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(visitor)) {
+                current.size.incrementAndGet();
+            }
+        } finally {
+            current.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * 把缓冲中的访问批量写入Redis  pfadd uv:类型:id:yyyyMMdd v1 v2 ...  pfadd uv:类型:id:total v1 v2 ...
+     * @return 写入的访问数
+     */
+    public int flush() {
+        if (buffer.get().size.get() == 0) {
+            return 0;
+        }
+        // 1.替换为新的缓冲，等待还在写旧缓冲的线程结束
+        Buffer old = buffer.getAndSet(new Buffer());
+        while (old.writers.get() > 0) {
+            Thread.yield();
+        }
+        Map<String, String[]> batch = new HashMap<>();
+        old.visitors.forEach((key, visitors) -> batch.put(key, visitors.toArray(new String[0])));
+        int count = old.size.get();
+        // 2.批量写入Redis
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            batch.forEach((key, visitors) -> {
+                conn.pfAdd(key, visitors);
+                // 日统计只需要保留最近一周
+                conn.expire(key, TimeUnit.DAYS.toSeconds(UV_DAY_TTL));
+                conn.pfAdd(key.substring(0, key.lastIndexOf(':') + 1) + TOTAL, visitors);
+            });
+            return null;
+        });
+        int lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            log.warn("访客统计缓冲已满，丢弃{}次访问", lost);
+        }
+        return count;
+    }
+
+    /**
+     * 查询今天、最近7天、累计的独立访客数
+     * 最近7天由PFCOUNT多个日key在Redis中合并计算，结果短暂缓存
+     * @param type TYPE_SHOP或TYPE_BLOG
+     * @param id 店铺或博客id
+     * @return
+     */
+    public Map<String, Long> query(String type, Long id) {
+        String prefix = UV_KEY + type + ":" + id + ":";
+        LocalDate today = LocalDate.now();
+        Map<String, Long> result = new LinkedHashMap<>(3);
+        result.put("day", stringRedisTemplate.opsForHyperLogLog().size(prefix + today.format(DAY_FORMATTER)));
+        String weekKey = CACHE_UV_WEEK_KEY + type + ":" + id;
+        String week = stringRedisTemplate.opsForValue().get(weekKey);
+        if (week == null) {
+            String[] keys = new String[WEEK_DAYS];
+            for (int i = 0; i < WEEK_DAYS; i++) {
+                keys[i] = prefix + today.minusDays(i).format(DAY_FORMATTER);
+            }
+            week = String.valueOf(stringRedisTemplate.opsForHyperLogLog().size(keys));
+            stringRedisTemplate.opsForValue().set(weekKey, week, CACHE_UV_WEEK_TTL, TimeUnit.SECONDS);
+        }
+        result.put("week", Long.valueOf(week));
+        result.put("total", stringRedisTemplate.opsForHyperLogLog().size(prefix + TOTAL));
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("停止时写入访客统计失败", e);
+        }
+    }
+}
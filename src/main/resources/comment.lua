@@ -0,0 +1,24 @@
+-- 评论数+1
+-- KEYS[1] 评论计数器 blog:comments:count:blogId
+-- KEYS[2] 待写回数据库的博客集合 blog:comments:dirty
+-- KEYS[3] 热门博客排行榜 blog:hot
+-- KEYS[4] 重建中的临时排行榜 blog:hot:tmp
+-- ARGV[1] 博客id，ARGV[2] 评论的热度权重
+local countKey = KEYS[1]
+local dirtyKey = KEYS[2]
+local hotKey = KEYS[3]
+local hotTmpKey = KEYS[4]
+local blogId = ARGV[1]
+
+-- 1.计数器不存在，返回-1，由调用方从数据库初始化后重试
+if (redis.call('exists', countKey) == 0) then
+    return -1
+end
+-- 2.计数+1，标记为待写回
+local count = redis.call('incr', countKey)
+redis.call('sadd', dirtyKey, blogId)
+-- 3.修改热度，XX只修改已在排行榜中的博客
+redis.call('zadd', hotKey, 'XX', 'INCR', tonumber(ARGV[2]), blogId)
+-- 正在重建时同步修改临时排行榜，避免RENAME覆盖掉重建期间的评论
+redis.call('zadd', hotTmpKey, 'XX', 'INCR', tonumber(ARGV[2]), blogId)
+return count
@@ -0,0 +1,9 @@
+-- 评论id写入已加载的评论id集合
+-- KEYS[1] 评论id集合 blog:comments:blogId 或 comment:replies:commentId
+-- ARGV[1] 评论id
+-- 集合未加载或已过期时不写入，避免ZADD创建一个没有占位成员、没有过期时间的集合，下次查询时从数据库加载
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('zadd', KEYS[1], ARGV[1], ARGV[1])
+return 1
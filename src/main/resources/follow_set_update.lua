@@ -0,0 +1,13 @@
+-- 修改已加载的关注/粉丝集合
+-- KEYS[1] 集合 follows:userId 或 fans:userId
+-- ARGV[1] 成员，ARGV[2] 占位成员，ARGV[3] 1为添加、0为删除
+-- 没有占位成员说明集合未加载、已过期或正在加载，不写入，返回0
+if (redis.call('sismember', KEYS[1], ARGV[2]) == 0) then
+    return 0
+end
+if (ARGV[3] == '1') then
+    redis.call('sadd', KEYS[1], ARGV[1])
+else
+    redis.call('srem', KEYS[1], ARGV[1])
+end
+return 1
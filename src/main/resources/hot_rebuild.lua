@@ -0,0 +1,20 @@
+-- 重建排行榜：读取一批博客的点赞、评论计数器并写入临时排行榜
+-- KEYS[1] 临时排行榜 blog:hot:tmp
+-- KEYS[2i]、KEYS[2i+1] 第i篇博客的点赞计数器、评论计数器
+-- ARGV[1] 点赞的热度权重，ARGV[2] 评论的热度权重
+-- ARGV[4i-1]..ARGV[4i+2] 第i篇博客的id、数据库中的点赞数、数据库中的评论数、发布时间对应的基础分
+-- 读计数器和写入在同一个脚本中完成，写入之后的点赞/评论由like.lua、comment.lua同步增量到临时排行榜，不会丢失
+local tmpKey = KEYS[1]
+local likeWeight = tonumber(ARGV[1])
+local commentWeight = tonumber(ARGV[2])
+local n = (#KEYS - 1) / 2
+
+for i = 1, n do
+    -- 1.计数器存在时覆盖数据库中的值
+    local liked = redis.call('get', KEYS[2 * i]) or ARGV[4 * i]
+    local comments = redis.call('get', KEYS[2 * i + 1]) or ARGV[4 * i + 1]
+    -- 2.计算热度写入临时排行榜
+    local score = tonumber(liked) * likeWeight + tonumber(comments) * commentWeight + tonumber(ARGV[4 * i + 2])
+    redis.call('zadd', tmpKey, score, ARGV[4 * i - 1])
+end
+return n
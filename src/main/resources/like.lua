@@ -0,0 +1,42 @@
+-- 点赞/取消点赞切换
+-- KEYS[1] 点赞用户集合 blog:liked:blogId
+-- KEYS[2] 点赞计数器 blog:liked:count:blogId
+-- KEYS[3] 待写回数据库的博客集合 blog:liked:dirty
+-- KEYS[4] 热门博客排行榜 blog:hot
+-- KEYS[5] 重建中的临时排行榜 blog:hot:tmp
+-- ARGV[1] 用户id，ARGV[2] 当前时间戳，ARGV[3] 博客id，ARGV[4] 点赞的热度权重
+local likedKey = KEYS[1]
+local countKey = KEYS[2]
+local dirtyKey = KEYS[3]
+local hotKey = KEYS[4]
+local hotTmpKey = KEYS[5]
+local userId = ARGV[1]
+local blogId = ARGV[3]
+
+-- 1.计数器不存在，返回-1，由调用方从数据库初始化后重试
+if (redis.call('exists', countKey) == 0) then
+    return {-1, 0}
+end
+
+local isLike
+local delta
+-- 2.判断是否已经点赞 zscore likedKey userId
+if (redis.call('zscore', likedKey, userId) == false) then
+    -- 2.1未点赞，保存用户并计数+1
+    redis.call('zadd', likedKey, ARGV[2], userId)
+    isLike = 1
+    delta = 1
+else
+    -- 2.2已点赞，删除用户并计数-1
+    redis.call('zrem', likedKey, userId)
+    isLike = 0
+    delta = -1
+end
+local count = redis.call('incrby', countKey, delta)
+-- 3.标记为待写回
+redis.call('sadd', dirtyKey, blogId)
+-- 4.修改热度，XX只修改已在排行榜中的博客
+redis.call('zadd', hotKey, 'XX', 'INCR', delta * tonumber(ARGV[4]), blogId)
+-- 正在重建时同步修改临时排行榜，避免RENAME覆盖掉重建期间的点赞
+redis.call('zadd', hotTmpKey, 'XX', 'INCR', delta * tonumber(ARGV[4]), blogId)
+return {isLike, count}
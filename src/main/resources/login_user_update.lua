@@ -0,0 +1,9 @@
+-- 修改登录token中保存的用户信息
+-- KEYS[1] 登录token的Hash login:token:xxx
+-- ARGV 依次为 field1 value1 field2 value2 ...
+-- token已过期时不写入，避免HSET重新创建一个没有过期时间的Hash
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('hset', KEYS[1], unpack(ARGV))
+return 1
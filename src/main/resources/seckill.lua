@@ -1,26 +1,52 @@
---1，参数列表
---1.1 优惠券id
-local voucherId = ARGV[1]
---1.2 用户id
-local userId = ARGV[2]
---1.3 订单id
-local orderId = ARGV[3]
+--1.数据key
+--1.1 库存key
+local stockKey = KEYS[1]
+--1.2 订单key，保存已下单的用户id
+local orderKey = KEYS[2]
+--1.3 秒杀信息key，hash保存开始、结束时间
+local infoKey = KEYS[3]
+--1.4 统计key，hash保存请求数、抢到数、售罄时间
+local metricsKey = KEYS[4]
 
---2.数据key
---2.1库存key
-local stockKey = 'seckill:stock:' .. voucherId
+--2.参数列表
+--2.1 用户id
+local userId = ARGV[1]
+--2.2 当前时间戳（ms）
+local now = tonumber(ARGV[2])
 
 --3.脚本业务
---3.1判断库存是否充足 get stockKey
-if( tonumber(redis.call('get', stockKey) <= 0)) then
-    --3.2 库存不足，返回1
+--3.1 判断秒杀是否已经预热 get stockKey
+local stock = redis.call('get', stockKey)
+if (stock == false) then
+    --3.2 尚未预热，返回5
+    return 5
+end
+redis.call('hincrby', metricsKey, 'requests', 1)
+--3.3 判断秒杀时间 hmget infoKey begin end
+local window = redis.call('hmget', infoKey, 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    return 3
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 4
+end
+--3.4 判断库存是否充足
+if (tonumber(stock) <= 0) then
+    --库存不足，返回1
     return 1
 end
-
--- 3.4.扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
+--3.5 判断用户是否下单 sismember orderKey userId
+if (redis.call('sismember', orderKey, userId) == 1) then
+    --重复下单，返回2
+    return 2
+end
+--3.6 扣库存 incrby stockKey -1
+local left = redis.call('incrby', stockKey, -1)
+--3.7 下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+--3.8 记录统计，最后一件卖出时记录售罄时间
+redis.call('hincrby', metricsKey, 'admits', 1)
+if (left == 0) then
+    redis.call('hsetnx', metricsKey, 'soldOutAt', ARGV[2])
+end
+return 0
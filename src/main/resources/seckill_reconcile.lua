@@ -0,0 +1,28 @@
+--1.数据key
+--1.1 库存key
+local stockKey = KEYS[1]
+--1.2 订单key，保存已下单的用户id
+local orderKey = KEYS[2]
+
+--2.参数列表
+--2.1 总库存
+local total = tonumber(ARGV[1])
+--2.2 是否修复，1修复
+local repair = ARGV[2]
+
+--3.脚本业务
+local stock = redis.call('get', stockKey)
+if (stock == false) then
+    --3.1 没有预热，不需要对账
+    return nil
+end
+--3.2 剩余库存 + 已下单用户数 = 总库存
+local expected = total - redis.call('scard', orderKey)
+if (expected < 0) then
+    expected = 0
+end
+local drift = tonumber(stock) - expected
+if (drift ~= 0 and repair == '1') then
+    redis.call('incrby', stockKey, -drift)
+end
+return drift